@@ -0,0 +1,42 @@
+package blocky;
+
+// Small timing helpers shared by the benchmarks in this directory.
+public class BenchmarkTimer
+{
+    // Keeps results alive so the JIT can't drop the measured work.
+    static volatile long sink;
+
+    // Method that runs task until it is warm, then prints and returns the
+    // average nanoseconds per call.
+    public static double measure(String name, int iterations, Runnable task)
+    {
+        for(int i = 0; i < iterations; i++)
+        {
+            task.run();
+        }
+
+        long start = System.nanoTime();
+
+        for(int i = 0; i < iterations; i++)
+        {
+            task.run();
+        }
+
+        double nanosPerOp = (System.nanoTime() - start) / (double) iterations;
+        System.out.printf("%-48s %12.1f ns/op%n", name, nanosPerOp);
+        return nanosPerOp;
+    }
+
+    // Method that returns the heap in use after a few collections.
+    public static long usedMemory()
+    {
+        Runtime runtime = Runtime.getRuntime();
+
+        for(int i = 0; i < 3; i++)
+        {
+            System.gc();
+        }
+
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,18 @@
+package blocky;
+import java.io.IOException;
+
+// Runs every benchmark in this directory.  Started by the "bench" Ant target.
+public class Benchmarks
+{
+    public static void main(String[] args) throws IOException
+    {
+        BlockArenaBenchmark.main(args);
+        RepaintBenchmark.main(args);
+        PaintBenchmark.main(args);
+        GoalBenchmark.main(args);
+        SearchBenchmark.main(args);
+        DeepBoardBenchmark.main(args);
+        CheckpointBenchmark.main(args);
+        ServerBenchmark.main(args);
+    }
+}
@@ -0,0 +1,100 @@
+package blocky;
+import java.util.ArrayList;
+import java.util.List;
+
+// Compares memory use and traversal speed of Block trees and BlockArena.
+public class BlockArenaBenchmark
+{
+    final static int DEPTH = 7;
+    final static int BOARDS = 20;
+
+    public static void main(String[] args)
+    {
+        System.out.println("== BlockArena vs Block, " + BOARDS + " full boards of depth " + DEPTH + " ==");
+
+        long before = BenchmarkTimer.usedMemory();
+        List<Block> blocks = new ArrayList<>();
+
+        for(int i = 0; i < BOARDS; i++)
+        {
+            blocks.add(createFullBoard());
+        }
+
+        long blockBytes = BenchmarkTimer.usedMemory() - before;
+
+        before = BenchmarkTimer.usedMemory();
+        List<BlockArena> arenas = new ArrayList<>();
+
+        for(Block block : blocks)
+        {
+            arenas.add(BlockArena.fromBlock(block));
+        }
+
+        long arenaBytes = BenchmarkTimer.usedMemory() - before;
+
+        int nodes = arenas.get(0).nodeCount();
+        System.out.printf("nodes per board: %d%n", nodes);
+        System.out.printf("Block tree: %8.1f bytes/node%n", blockBytes / (double) (nodes * BOARDS));
+        System.out.printf("BlockArena: %8.1f bytes/node%n", arenaBytes / (double) (nodes * BOARDS));
+
+        Block block = blocks.get(0);
+        BlockArena arena = arenas.get(0);
+        BenchmarkTimer.measure("Block color area walk", 200, () -> BenchmarkTimer.sink += colorArea(block)[0]);
+        BenchmarkTimer.measure("BlockArena color area scan", 200, () -> BenchmarkTimer.sink += arena.colorArea()[0]);
+        BenchmarkTimer.measure("Block rotate root", 100000, () -> block.rotate(true));
+        BenchmarkTimer.measure("BlockArena rotate root", 100000, () -> arena.rotate(BlockArena.ROOT, true));
+    }
+
+    // Method that builds a board subdivided all the way down to DEPTH.
+    static Block createFullBoard()
+    {
+        return createFullBoard(DEPTH);
+    }
+
+    static Block createFullBoard(int depth)
+    {
+        Block root = new Block(depth, Block.DEFAULT_SIZE);
+        subdivide(root);
+        return root;
+    }
+
+    private static void subdivide(Block block)
+    {
+        if(block.getLevel() < block.getMaxDepth())
+        {
+            List<Block> children = new ArrayList<>();
+
+            for(int i = 0; i < 4; i++)
+            {
+                Block child = new Block(Block.COLORS[(int) (Math.random() * Block.COLORS.length)],
+                        block.getLevel() + 1, block.getSize() / 2, block);
+                subdivide(child);
+                children.add(child);
+            }
+
+            block.setChildren(children);
+        }
+    }
+
+    private static long[] colorArea(Block root)
+    {
+        long[] area = new long[Block.COLORS.length];
+        addColorArea(root, area);
+        return area;
+    }
+
+    private static void addColorArea(Block block, long[] area)
+    {
+        if(block.getChildren().isEmpty())
+        {
+            area[Block.colorIndex(block.getColor())] += 1L << (2 * (block.getMaxDepth() - block.getLevel()));
+        }
+        else
+        {
+            for(Block child : block.getChildren())
+            {
+                addColorArea(child, area);
+            }
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package blocky;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+// What autosaving costs the thread that plays the game: a move with a
+// GameCheckpointer listening against one without, and the encoding each
+// checkpoint does on that thread, at a few depths.  The file itself is
+// written on the checkpointer's own thread.
+public class CheckpointBenchmark
+{
+    public static void main(String[] args) throws IOException
+    {
+        System.out.println("== Autosave ==");
+
+        Game game = new Game();
+        Block block = RepaintBenchmark.deepestParent(game.getRoot());
+        Path path = Files.createTempFile("blocky", ".autosave");
+
+        BenchmarkTimer.measure("swap", 200000, () -> block.swap(true));
+
+        // This thread plays the game, and the delay outlasts the run, so only
+        // the listener is measured here.
+        GameCheckpointer checkpointer = GameCheckpointer.start(path, game, Runnable::run, 3600000);
+        BenchmarkTimer.measure("swap (autosaving)", 200000, () -> block.swap(true));
+        checkpointer.close();
+        Files.delete(path);
+
+        for(int depth : new int[] {5, 8, 10})
+        {
+            Game deep = new Game(depth, Block.DEFAULT_SIZE);
+            BenchmarkTimer.measure("checkpoint capture, random board depth " + depth, 20000, () ->
+            {
+                BenchmarkTimer.sink += BoardCodec.encode(deep.getRoot()).length;
+            });
+        }
+
+        Block full = BlockArenaBenchmark.createFullBoard(9);
+        BenchmarkTimer.measure("checkpoint capture, full board depth 9", 10, () ->
+        {
+            BenchmarkTimer.sink += BoardCodec.encode(full).length;
+        });
+    }
+}
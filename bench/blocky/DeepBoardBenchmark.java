@@ -0,0 +1,88 @@
+package blocky;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+
+// Memory and time for deep boards on a board of the default pixel size:
+// random boards as Game builds them, and boards subdivided all the way
+// down, which is the worst case for the Block tree.  Full boards are also
+// painted zoomed in 16 times on their middle, as GameRenderer's Viewport
+// would, which should cost no more than painting the whole board.
+public class DeepBoardBenchmark
+{
+    final static int RANDOM_BOARDS = 200;
+
+    public static void main(String[] args)
+    {
+        System.out.println("== Deep boards, " + Block.DEFAULT_SIZE + " pixels ==");
+        System.out.printf("%-6s %12s %12s %12s %12s%n", "depth", "random ms", "random nodes", "grid ms", "grid MB");
+
+        for(int depth : new int[] {5, 8, 10, 11, 12})
+        {
+            randomBoards(depth);
+        }
+
+        System.out.printf("%-6s %12s %12s %12s %12s %12s%n", "depth", "full ms", "full nodes", "full MB", "paint ms", "zoomed ms");
+
+        for(int depth : new int[] {8, 9, 10})
+        {
+            fullBoard(depth);
+        }
+    }
+
+    private static void randomBoards(int depth)
+    {
+        List<Game> games = new ArrayList<>();
+        long start = System.nanoTime();
+
+        for(int i = 0; i < RANDOM_BOARDS; i++)
+        {
+            games.add(new Game(i, depth, Block.DEFAULT_SIZE));
+        }
+
+        double generateMillis = (System.nanoTime() - start) / 1e6 / RANDOM_BOARDS;
+        long nodes = 0;
+
+        for(Game game : games)
+        {
+            nodes += BlockArena.fromBlock(game.getRoot()).nodeCount();
+        }
+
+        Game game = games.get(0);
+        start = System.nanoTime();
+        BoardGrid grid = game.getGrid();
+        double gridMillis = (System.nanoTime() - start) / 1e6;
+
+        // A byte per cell and a long per row, counted since usedMemory is too
+        // coarse to measure it.
+        long gridBytes = (long) grid.getSide() * grid.getSide() + 8L * grid.getSide();
+
+        System.out.printf("%-6d %12.3f %12d %12.1f %12.1f%n", depth, generateMillis,
+                nodes / RANDOM_BOARDS, gridMillis, gridBytes / 1e6);
+    }
+
+    private static void fullBoard(int depth)
+    {
+        long before = BenchmarkTimer.usedMemory();
+        long start = System.nanoTime();
+        Block root = BlockArenaBenchmark.createFullBoard(depth);
+        double buildMillis = (System.nanoTime() - start) / 1e6;
+        long bytes = BenchmarkTimer.usedMemory() - before;
+
+        BoardPainter painter = new BoardPainter(new BufferedImage(root.getSize(), root.getSize(), BufferedImage.TYPE_INT_RGB));
+        painter.paintBlocks(root, 0, 0);
+        start = System.nanoTime();
+        painter.paintBlocks(root, 0, 0);
+        double paintMillis = (System.nanoTime() - start) / 1e6;
+
+        Viewport viewport = new Viewport(root.getSize(), depth, root.getSize(), root.getSize());
+        viewport.zoom(4, root.getSize() / 2, root.getSize() / 2);
+        painter.paintBlocks(root, -viewport.getX(), -viewport.getY(), viewport.getScaledSize());
+        start = System.nanoTime();
+        painter.paintBlocks(root, -viewport.getX(), -viewport.getY(), viewport.getScaledSize());
+        double zoomedMillis = (System.nanoTime() - start) / 1e6;
+
+        long nodes = ((4L << (2 * depth)) - 1) / 3;
+        System.out.printf("%-6d %12.1f %12d %12.1f %12.1f %12.1f%n", depth, buildMillis, nodes, bytes / 1e6, paintMillis, zoomedMillis);
+    }
+}
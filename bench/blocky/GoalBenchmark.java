@@ -0,0 +1,140 @@
+package blocky;
+import java.awt.Color;
+import java.util.SplittableRandom;
+
+// Cost of scoring a board after a single move, for the blob and perimeter
+// goals, at the default depth and a deeper one; then the same questions
+// answered from the grid's ColorBitboards, from its cells, and by walking
+// the Block tree, and color counts from the aggregates each Block keeps,
+// both as they stand and just after a smash.
+public class GoalBenchmark
+{
+    public static void main(String[] args)
+    {
+        for(int depth : new int[] {5, 8})
+        {
+            run(depth);
+        }
+    }
+
+    private static void run(int depth)
+    {
+        System.out.println("== Goal scoring after one swap, depth " + depth + " ==");
+
+        Game game = new Game(depth, Block.DEFAULT_SIZE);
+        BoardGrid grid = game.getGrid();
+        Block block = RepaintBenchmark.deepestParent(game.getRoot());
+        Goal blob = new BlobGoal(Block.COLORS[0]);
+        Goal perimeter = new PerimeterGoal(Block.COLORS[0]);
+
+        BenchmarkTimer.measure("swap + blob score (incremental)", 20000, () ->
+        {
+            block.swap(true);
+            BenchmarkTimer.sink += blob.score(grid);
+        });
+        BenchmarkTimer.measure("swap + blob score (from scratch)", 20000, () ->
+        {
+            block.swap(true);
+            BenchmarkTimer.sink += blob.score(grid.getCells(), grid.getSide());
+        });
+        BenchmarkTimer.measure("swap + perimeter score", 20000, () ->
+        {
+            block.swap(true);
+            BenchmarkTimer.sink += perimeter.score(grid);
+        });
+        BenchmarkTimer.measure("swap + perimeter score (from cells)", 20000, () ->
+        {
+            block.swap(true);
+            BenchmarkTimer.sink += perimeter.score(grid.getCells(), grid.getSide());
+        });
+
+        ColorBitboards bitboards = grid.getBitboards();
+        byte[] cells = grid.getCells();
+
+        BenchmarkTimer.measure("color count (bitboards)", 20000, () ->
+        {
+            BenchmarkTimer.sink += bitboards.count(0);
+        });
+        BenchmarkTimer.measure("color count (cells)", 20000, () ->
+        {
+            BenchmarkTimer.sink += countCells(cells, 0);
+        });
+        BenchmarkTimer.measure("color count (walking blocks)", 20000, () ->
+        {
+            BenchmarkTimer.sink += countBlocks(game.getRoot(), Block.COLORS[0], depth);
+        });
+        BenchmarkTimer.measure("color count (block aggregates)", 20000, () ->
+        {
+            BenchmarkTimer.sink += game.getRoot().getColorArea(0);
+        });
+
+        Block smashed = game.getRoot().getChildren().get(0);
+        SplittableRandom random = new SplittableRandom(1);
+
+        BenchmarkTimer.measure("smash + color count (block aggregates)", 20000, () ->
+        {
+            smashed.smash(random.nextLong());
+            BenchmarkTimer.sink += game.getRoot().getColorArea(0);
+        });
+        BenchmarkTimer.measure("smash + color count (bitboards)", 20000, () ->
+        {
+            smashed.smash(random.nextLong());
+            BenchmarkTimer.sink += bitboards.count(0);
+        });
+        BenchmarkTimer.measure("adjacent pairs (bitboards)", 20000, () ->
+        {
+            BenchmarkTimer.sink += bitboards.adjacentPairs(0);
+        });
+        BenchmarkTimer.measure("adjacent pairs (cells)", 20000, () ->
+        {
+            BenchmarkTimer.sink += pairCells(cells, grid.getSide(), 0);
+        });
+    }
+
+    private static int countCells(byte[] cells, int colorIndex)
+    {
+        int count = 0;
+
+        for(byte cell : cells)
+        {
+            count += cell == colorIndex ? 1 : 0;
+        }
+
+        return count;
+    }
+
+    private static int pairCells(byte[] cells, int side, int colorIndex)
+    {
+        int pairs = 0;
+
+        for(int i = 0; i < cells.length; i++)
+        {
+            if(cells[i] == colorIndex)
+            {
+                pairs += i % side < side - 1 && cells[i + 1] == colorIndex ? 1 : 0;
+                pairs += i + side < cells.length && cells[i + side] == colorIndex ? 1 : 0;
+            }
+        }
+
+        return pairs;
+    }
+
+    // Unit cells of color under block, as a scorer without a grid would
+    // count them.
+    private static long countBlocks(Block block, Color color, int depth)
+    {
+        if(block.getChildren().isEmpty())
+        {
+            return block.getColor() == color ? 1L << (2 * (depth - block.getLevel())) : 0;
+        }
+
+        long count = 0;
+
+        for(Block child : block.getChildren())
+        {
+            count += countBlocks(child, color, depth);
+        }
+
+        return count;
+    }
+}
@@ -0,0 +1,20 @@
+package blocky;
+import java.awt.image.BufferedImage;
+
+// Full-board paint through one Graphics2D against writing the raster directly.
+public class PaintBenchmark
+{
+    public static void main(String[] args)
+    {
+        System.out.println("== Full board paint ==");
+
+        Game game = new Game();
+        BoardPainter painter = new BoardPainter(
+                new BufferedImage(game.getSize(), game.getSize(), BufferedImage.TYPE_INT_RGB));
+
+        BenchmarkTimer.measure("paintBlocksWithGraphics", 500,
+                () -> painter.paintBlocksWithGraphics(game.getRoot(), 0, 0));
+        BenchmarkTimer.measure("paintBlocks (raster)", 500,
+                () -> painter.paintBlocks(game.getRoot(), 0, 0));
+    }
+}
@@ -0,0 +1,49 @@
+package blocky;
+import java.awt.image.BufferedImage;
+
+// Frame time of a full board repaint against repainting only the subtree
+// a move changed, the way GameRenderer handles dirty blocks.
+public class RepaintBenchmark
+{
+    public static void main(String[] args)
+    {
+        System.out.println("== Repaint after a swap ==");
+
+        Game game = new Game();
+        BoardPainter painter = new BoardPainter(
+                new BufferedImage(game.getSize(), game.getSize(), BufferedImage.TYPE_INT_RGB));
+        painter.paintBlocks(game.getRoot(), 0, 0);
+
+        Block deepest = deepestParent(game.getRoot());
+        System.out.println("swapped block level: " + deepest.getLevel());
+
+        BenchmarkTimer.measure("full repaint", 500, () ->
+        {
+            deepest.swap(true);
+            painter.paintBlocks(game.getRoot(), 0, 0);
+        });
+        BenchmarkTimer.measure("dirty subtree repaint", 500, () ->
+        {
+            deepest.swap(true);
+            painter.paintBlocks(deepest, deepest.getXCoordinate(), deepest.getYCoordinate());
+        });
+    }
+
+    // Method that finds a subdivided block as deep in the tree as possible.
+    static Block deepestParent(Block block)
+    {
+        Block deepest = block;
+
+        for(Block child : block.getChildren())
+        {
+            Block candidate = deepestParent(child);
+
+            if(!candidate.getChildren().isEmpty() && candidate.getLevel() > deepest.getLevel())
+            {
+                deepest = candidate;
+            }
+        }
+
+        return deepest;
+    }
+}
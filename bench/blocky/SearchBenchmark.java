@@ -0,0 +1,131 @@
+package blocky;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Supplier;
+
+// Moves scored per second by ComputerPlayer on one thread and on all cores,
+// and the smash-and-restore step it takes for every smash it scores, with
+// and without a BlockPool to build the smashed-in children from.  Then
+// MctsPlayer's rollouts per second and the score it reaches after a few
+// moves at several time budgets, against ComputerPlayer's, to weigh
+// strength against latency.
+public class SearchBenchmark
+{
+    final static int STRENGTH_GAMES = 4;
+    final static int PLAYED_MOVES = 8;
+
+    public static void main(String[] args)
+    {
+        System.out.println("== ComputerPlayer move search ==");
+
+        Game game = new Game();
+        Goal goal = new BlobGoal(Block.COLORS[0]);
+        ForkJoinPool single = new ForkJoinPool(1);
+        ForkJoinPool all = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+
+        try
+        {
+            report("1 thread", new ComputerPlayer("single", goal, single), game);
+            report(Runtime.getRuntime().availableProcessors() + " threads", new ComputerPlayer("all", goal, all), game);
+        }
+        finally
+        {
+            single.shutdown();
+            all.shutdown();
+        }
+
+        smashAndRestore(game, null);
+        smashAndRestore(game, new BlockPool(game.getMaxDepth(), Game.POOL_CAPACITY));
+
+        System.out.println("== MctsPlayer, " + PLAYED_MOVES + " moves on " + STRENGTH_GAMES + " boards ==");
+        strength("ComputerPlayer", () -> new ComputerPlayer("greedy", goal));
+
+        for(long budget : new long[] {20, 100, 500})
+        {
+            strength("MctsPlayer " + budget + " ms", () -> new MctsPlayer("mcts", goal, budget));
+        }
+    }
+
+    // Method that lets a player make PLAYED_MOVES moves on each of a few
+    // fixed boards and prints the average score it ends with.
+    private static void strength(String name, Supplier<Player> players)
+    {
+        long totalScore = 0;
+        long rollouts = 0;
+        long start = System.nanoTime();
+
+        for(int i = 0; i < STRENGTH_GAMES; i++)
+        {
+            Game game = new Game(i);
+            Player player = players.get();
+
+            for(int move = 0; move < PLAYED_MOVES; move++)
+            {
+                game.applyMove(player.chooseMove(game));
+
+                if (player instanceof MctsPlayer)
+                {
+                    rollouts += ((MctsPlayer) player).getLastRollouts();
+                }
+            }
+
+            totalScore += player.getScore(game);
+        }
+
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("%-48s %12.1f score %12.0f rollouts/s %8.1f ms/move%n", name,
+                totalScore / (double) STRENGTH_GAMES, rollouts / seconds, seconds * 1000 / (STRENGTH_GAMES * PLAYED_MOVES));
+    }
+
+    // Method that smashes a level 1 block of a copy of game's board and puts
+    // its children back, as SearchBoard.evaluate does.
+    private static void smashAndRestore(Game game, BlockPool pool)
+    {
+        Block root = PersistentBlock.of(game.getRoot()).toBlock();
+        Block block = root.getChildren().get(0);
+        SplittableRandom random = new SplittableRandom(1);
+
+        Runnable smash = () ->
+        {
+            List<Block> oldChildren = block.getChildren();
+            block.smash(random.nextLong(), pool);
+            List<Block> newChildren = block.getChildren();
+            block.setChildren(oldChildren);
+
+            if (pool != null)
+            {
+                pool.release(newChildren);
+            }
+        };
+
+        BenchmarkTimer.measure("smash + restore" + (pool == null ? "" : " (pooled)"), 200000, smash);
+        long before = Metrics.allocatedBytes();
+
+        for(int i = 0; i < 10000; i++)
+        {
+            smash.run();
+        }
+
+        System.out.printf("%-48s %12.1f bytes/op%n", "  allocated", (Metrics.allocatedBytes() - before) / 10000.0);
+
+        if (pool != null)
+        {
+            System.out.println("  " + pool);
+        }
+    }
+
+    private static void report(String name, ComputerPlayer player, Game game)
+    {
+        double movesPerSecond = 0;
+
+        for(int i = 0; i < 200; i++)
+        {
+            player.chooseMove(game);
+            movesPerSecond = player.getMovesPerSecond();
+        }
+
+        System.out.printf("%-48s %12.0f moves/s (%d moves per search)%n",
+                name, movesPerSecond, player.getLastMovesEvaluated());
+    }
+}
@@ -0,0 +1,48 @@
+package blocky;
+import java.io.IOException;
+
+// Moves per second and latency of a GameServer in this JVM driven by
+// LoadGenerator over localhost, with the same sessions shared out over more
+// and more connections.  Round trips are what the clients waited; the
+// server's latency runs from reading a move to having played it, so the gap
+// between the two is the socket and the connection threads.
+public class ServerBenchmark
+{
+    final static int SESSIONS = 2000;
+    final static int MOVES = 20;
+
+    public static void main(String[] args) throws IOException
+    {
+        System.out.println("== Game server, " + SESSIONS + " sessions of " + MOVES + " moves ==");
+        System.out.printf("%-12s %12s %12s %12s %12s %12s%n", "connections", "moves/s", "trip p50 us", "trip p99 us", "server p50", "server p99");
+
+        try
+        {
+            // Warm-up.
+            run(8);
+
+            for(int connections : new int[] {1, 8, 64})
+            {
+                run(connections);
+            }
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void run(int connections) throws IOException, InterruptedException
+    {
+        // A fresh server each time, so the server's histogram only has this
+        // run's moves.
+        try (GameServer server = GameServer.start(0, SESSIONS, GameServer.DEFAULT_MAX_DEPTH))
+        {
+            LoadGenerator.Report report = new LoadGenerator(server.getPort(), SESSIONS, MOVES, connections, 1, Block.DEFAULT_MAX_DEPTH).run();
+            GameServer.ServerStats stats = report.getServerStats();
+            System.out.printf("%-12d %12.0f %12d %12d %12d %12d%n", connections, report.getMovesPerSecond(),
+                    report.getRoundTripPercentile(50) / 1000, report.getRoundTripPercentile(99) / 1000,
+                    stats.p50Nanos / 1000, stats.p99Nanos / 1000);
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package blocky;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+// Block.rotate, swap and smash on a fixed board.  The rotate benchmarks also
+// read the children back, so the lazy rotation has to be applied.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Thread)
+public class BlockOperationsBenchmark
+{
+    private Game game;
+    private Block root;
+    private Block deepest;
+    private Block levelOne;
+    private PersistentBlock persistentRoot;
+    private int[] deepestPath;
+    
+    @Setup(Level.Trial)
+    public void setUp()
+    {
+        game = new Game(JmhBoards.SEED);
+        root = game.getRoot();
+        deepest = JmhBoards.deepestParent(root);
+        levelOne = root.getChildren().get(0);
+        persistentRoot = PersistentBlock.of(root);
+        deepestPath = Move.of(deepest, Move.Type.SWAP_HORIZONTAL).getPath();
+    }
+    
+    @Benchmark
+    public void rotateRoot(Blackhole blackhole)
+    {
+        root.rotate(true);
+        blackhole.consume(root.getChildren());
+    }
+    
+    @Benchmark
+    public void rotateRootAndFlatten(Blackhole blackhole)
+    {
+        root.rotate(true);
+        blackhole.consume(root.flatten());
+    }
+    
+    @Benchmark
+    public void swapDeepest(Blackhole blackhole)
+    {
+        deepest.swap(true);
+        blackhole.consume(deepest.getChildren());
+    }
+    
+    @Benchmark
+    public void swapRoot(Blackhole blackhole)
+    {
+        root.swap(false);
+        blackhole.consume(root.getChildren());
+    }
+    
+    // The same seed every time, so the board after each smash is the same.
+    @Benchmark
+    public void smashLevelOne(Blackhole blackhole)
+    {
+        levelOne.smash(JmhBoards.SEED);
+        blackhole.consume(levelOne.getChildren());
+    }
+    
+    // The persistent board copies only the path down to the swapped block.
+    @Benchmark
+    public PersistentBlock persistentSwapDeepest()
+    {
+        persistentRoot = persistentRoot.swap(deepestPath, true);
+        return persistentRoot;
+    }
+    
+    @Benchmark
+    public PersistentBlock persistentRotateRoot()
+    {
+        persistentRoot = persistentRoot.rotate(new int[0], true);
+        return persistentRoot;
+    }
+}
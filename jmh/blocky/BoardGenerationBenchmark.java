@@ -0,0 +1,35 @@
+package blocky;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Game.createRandomChildren for each maximum depth.  The board is built from
+// the same seed every time, so every run measures the same tree.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Benchmark)
+public class BoardGenerationBenchmark
+{
+    @Param({"1", "2", "3", "4", "5", "6", "7", "8", "10", "12"})
+    public int depth;
+    
+    @Benchmark
+    public Block createRandomChildren()
+    {
+        Block root = new Block(depth, Block.DEFAULT_SIZE);
+        Game.createRandomChildren(root, new SplittableRandom(JmhBoards.SEED));
+        return root;
+    }
+}
@@ -0,0 +1,63 @@
+package blocky;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+// The point lookup behind a mouse click, walking the tree and through the
+// leaf index, over a fixed set of pseudo-random pixels.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = "-Djava.awt.headless=true")
+@State(Scope.Thread)
+public class HighlightLookupBenchmark
+{
+    private final static int POINTS = 1024;
+    
+    private Game game;
+    private Block root;
+    private final int[] rows = new int[POINTS];
+    private final int[] columns = new int[POINTS];
+    private int next;
+    
+    @Setup(Level.Trial)
+    public void setUp()
+    {
+        game = new Game(JmhBoards.SEED);
+        root = game.getRoot();
+        game.getLeafIndex();
+        SplittableRandom random = new java.util.SplittableRandom(JmhBoards.SEED);
+        
+        for(int i = 0; i < POINTS; i++)
+        {
+            rows[i] = random.nextInt(game.getSize());
+            columns[i] = random.nextInt(game.getSize());
+        }
+    }
+    
+    @Benchmark
+    public void findBlockToHighlight(Blackhole blackhole)
+    {
+        int i = next++ & (POINTS - 1);
+        blackhole.consume(GameRenderer.findBlockToHighlight(root, rows[i], columns[i]));
+    }
+    
+    @Benchmark
+    public void leafIndexLookup(Blackhole blackhole)
+    {
+        int i = next++ & (POINTS - 1);
+        blackhole.consume(game.blockAt(columns[i], rows[i], game.getMaxDepth()));
+    }
+}
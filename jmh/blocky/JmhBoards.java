@@ -0,0 +1,31 @@
+package blocky;
+
+// Boards shared by the JMH benchmarks.  Everything is built from fixed seeds
+// so results can be compared between commits.
+final class JmhBoards
+{
+    final static long SEED = 20201018L;
+    
+    private JmhBoards()
+    {
+    }
+    
+    // Method that returns the first subdivided block found at the deepest
+    // possible level, preferring upper-left children.
+    static Block deepestParent(Block block)
+    {
+        Block deepest = block;
+        
+        for(Block child : block.getChildren())
+        {
+            Block candidate = deepestParent(child);
+            
+            if(!candidate.getChildren().isEmpty() && candidate.getLevel() > deepest.getLevel())
+            {
+                deepest = candidate;
+            }
+        }
+        
+        return deepest;
+    }
+}
@@ -0,0 +1,59 @@
+package blocky;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// BoardPainter drawing a whole board into an offscreen image, through the
+// raster writer and through Graphics2D, plus a dirty-subtree repaint.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = "-Djava.awt.headless=true")
+@State(Scope.Thread)
+public class RenderingBenchmark
+{
+    private Block root;
+    private Block deepest;
+    private BoardPainter painter;
+    
+    @Setup(Level.Trial)
+    public void setUp()
+    {
+        root = new Game(JmhBoards.SEED).getRoot();
+        deepest = JmhBoards.deepestParent(root);
+        painter = new BoardPainter(new BufferedImage(root.getSize(), root.getSize(), BufferedImage.TYPE_INT_RGB));
+        painter.paintBlocks(root, 0, 0);
+    }
+    
+    @Benchmark
+    public BufferedImage paintBlocksRaster()
+    {
+        painter.paintBlocks(root, 0, 0);
+        return painter.getImage();
+    }
+    
+    @Benchmark
+    public BufferedImage paintBlocksGraphics()
+    {
+        painter.paintBlocksWithGraphics(root, 0, 0);
+        return painter.getImage();
+    }
+    
+    @Benchmark
+    public BufferedImage paintDirtySubtree()
+    {
+        painter.paintBlocks(deepest, deepest.getXCoordinate(), deepest.getYCoordinate());
+        return painter.getImage();
+    }
+}
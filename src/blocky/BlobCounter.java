@@ -0,0 +1,463 @@
+package blocky;
+import java.util.Arrays;
+
+// Finds the largest blob of one color in a flattened board.  Each row is
+// cut into runs of the target color, and runs that overlap a run in the row
+// above belong to the same blob.  Given the board's ColorBitboards, runs are
+// found a word at a time instead of cell by cell.
+//
+// The rows are split into bands of about the square root of the side.  Each
+// band keeps its own runs and a summary of how they join up inside the band:
+// the size of every blob that reaches the band's top or bottom row, labelled
+// on the runs there, and the largest blob that stays inside the band.  A
+// move only scans the rows whose version moved and only summarizes again the
+// bands whose runs changed; the summaries are then joined across the band
+// edges.  So a small move costs the runs in its band and in the two rows at
+// every band edge, about 3 * sqrt(side) rows' worth instead of all side
+// rows, and a move that leaves this color's runs as they were costs no
+// joining at all.  Runs are stored band by band in arrays as long as the
+// band has runs, so a deep board with few colors takes little room.
+class BlobCounter
+{
+    private final int colorIndex;
+    private final int side;
+    private final Band[] bands;
+    
+    //scannedVersions:
+    //    The grid's row version each row was last scanned at.
+    private final long[] scannedVersions;
+    
+    //newStarts, newEnds, newOffsets:
+    //    A band's runs as they are scanned again, copied over its old ones
+    //    if they differ.
+    private int[] newStarts = new int[64];
+    private int[] newEnds = new int[64];
+    private final int[] newOffsets;
+    
+    //parents, sizes:
+    //    Union-find over one band's runs while it is summarized, then over
+    //    every band's labels while they are joined.
+    private int[] parents = new int[64];
+    private int[] sizes = new int[64];
+    
+    //labels:
+    //    The label summarize gives each root, or -1 before it has one.
+    private int[] labels = new int[64];
+    
+    // The answer from the last call, reused while no band changes.
+    private int largest = -1;
+    
+    BlobCounter(int inColorIndex, int inSide)
+    {
+        colorIndex = inColorIndex;
+        side = inSide;
+        
+        int bandRows = Math.max(1, (int) Math.sqrt(side));
+        bands = new Band[(side + bandRows - 1) / bandRows];
+        
+        for (int i = 0; i < bands.length; i++)
+        {
+            bands[i] = new Band(i * bandRows, Math.min(bandRows, side - i * bandRows));
+        }
+        
+        newOffsets = new int[bandRows + 1];
+        scannedVersions = new long[side];
+        Arrays.fill(scannedVersions, -1);
+    }
+    
+    // Method that returns the size of the largest blob.  With rowVersions,
+    // only rows whose version moved are scanned; without, every row is.
+    int largestBlob(byte[] cells, long[] rowVersions)
+    {
+        return largestBlob(cells, null, rowVersions);
+    }
+    
+    // Method that does the same from the bitboards of a grid.
+    int largestBlob(ColorBitboards bitboards, long[] rowVersions)
+    {
+        return largestBlob(null, bitboards, rowVersions);
+    }
+    
+    private int largestBlob(byte[] cells, ColorBitboards bitboards, long[] rowVersions)
+    {
+        boolean changed = largest < 0;
+        
+        for (Band band : bands)
+        {
+            if (isDirty(band, rowVersions) && scanBand(band, cells, bitboards, rowVersions))
+            {
+                summarize(band);
+                changed = true;
+            }
+        }
+        
+        if (changed)
+        {
+            largest = joinBands();
+        }
+        
+        return largest;
+    }
+    
+    private boolean isDirty(Band band, long[] rowVersions)
+    {
+        if (rowVersions == null)
+        {
+            return true;
+        }
+        
+        for (int row = band.firstRow; row < band.firstRow + band.rowCount; row++)
+        {
+            if (scannedVersions[row] != rowVersions[row])
+            {
+                return true;
+            }
+        }
+        
+        return false;
+    }
+    
+    // Method that scans the band's rows whose version moved, keeps the runs
+    // of the others, and returns whether the band's runs changed.
+    private boolean scanBand(Band band, byte[] cells, ColorBitboards bitboards, long[] rowVersions)
+    {
+        int count = 0;
+        
+        for (int i = 0; i < band.rowCount; i++)
+        {
+            int row = band.firstRow + i;
+            newOffsets[i] = count;
+            
+            // A row has at most one run for every two cells.
+            ensureNewCapacity(count + (side + 1) / 2);
+            
+            if (rowVersions == null || scannedVersions[row] != rowVersions[row])
+            {
+                if (bitboards != null)
+                {
+                    count = scanRow(bitboards, row, count);
+                }
+                else
+                {
+                    count = scanRow(cells, row, count);
+                }
+                
+                if (rowVersions != null)
+                {
+                    scannedVersions[row] = rowVersions[row];
+                }
+            }
+            else
+            {
+                int from = band.offsets[i];
+                int length = band.offsets[i + 1] - from;
+                System.arraycopy(band.starts, from, newStarts, count, length);
+                System.arraycopy(band.ends, from, newEnds, count, length);
+                count += length;
+            }
+        }
+        
+        newOffsets[band.rowCount] = count;
+        
+        if (Arrays.equals(newOffsets, 0, band.rowCount + 1, band.offsets, 0, band.rowCount + 1)
+                && Arrays.equals(newStarts, 0, count, band.starts, 0, count)
+                && Arrays.equals(newEnds, 0, count, band.ends, 0, count))
+        {
+            return false;
+        }
+        
+        band.starts = Arrays.copyOf(newStarts, count);
+        band.ends = Arrays.copyOf(newEnds, count);
+        System.arraycopy(newOffsets, 0, band.offsets, 0, band.rowCount + 1);
+        return true;
+    }
+    
+    private void ensureNewCapacity(int capacity)
+    {
+        if (newStarts.length < capacity)
+        {
+            int length = Math.max(capacity, newStarts.length * 2);
+            newStarts = Arrays.copyOf(newStarts, length);
+            newEnds = Arrays.copyOf(newEnds, length);
+        }
+    }
+    
+    // Method that appends the runs in row to newStarts and newEnds from
+    // index count on, and returns the new count.
+    private int scanRow(byte[] cells, int row, int count)
+    {
+        int offset = row * side;
+        int column = 0;
+        
+        while (column < side)
+        {
+            if (cells[offset + column] == colorIndex)
+            {
+                int start = column;
+                
+                while (column < side && cells[offset + column] == colorIndex)
+                {
+                    column++;
+                }
+                
+                newStarts[count] = start;
+                newEnds[count] = column;
+                count++;
+            }
+            else
+            {
+                column++;
+            }
+        }
+        
+        return count;
+    }
+    
+    private int scanRow(ColorBitboards bitboards, int row, int count)
+    {
+        int offset = row * side;
+        int end = offset + side;
+        int start = bitboards.nextSetBit(colorIndex, offset, end);
+        
+        while (start < end)
+        {
+            int stop = bitboards.nextClearBit(colorIndex, start, end);
+            newStarts[count] = start - offset;
+            newEnds[count] = stop - offset;
+            count++;
+            start = stop < end ? bitboards.nextSetBit(colorIndex, stop, end) : end;
+        }
+        
+        return count;
+    }
+    
+    // Method that joins the band's runs row by row and records the blobs
+    // that reach its top or bottom row, and the largest one that doesn't.
+    private void summarize(Band band)
+    {
+        int runCount = band.offsets[band.rowCount];
+        ensureCapacity(runCount);
+        
+        for (int run = 0; run < runCount; run++)
+        {
+            parents[run] = run;
+            sizes[run] = band.ends[run] - band.starts[run];
+            labels[run] = -1;
+        }
+        
+        for (int i = 1; i < band.rowCount; i++)
+        {
+            joinRows(band, i - 1, null, 0, band, i, null, 0);
+        }
+        
+        // In a band of one row the top and bottom row are the same, and so
+        // are their labels.
+        int topCount = band.offsets[1];
+        int bottomFirst = band.offsets[band.rowCount - 1];
+        band.topLabels = new int[topCount];
+        band.bottomLabels = new int[runCount - bottomFirst];
+        int[] labelSizes = new int[topCount + runCount - bottomFirst];
+        int labelCount = 0;
+        
+        for (int run = 0; run < topCount; run++)
+        {
+            labelCount = label(run, labelSizes, labelCount);
+            band.topLabels[run] = labels[find(run)];
+        }
+        
+        for (int run = bottomFirst; run < runCount; run++)
+        {
+            labelCount = label(run, labelSizes, labelCount);
+            band.bottomLabels[run - bottomFirst] = labels[find(run)];
+        }
+        
+        band.labelSizes = Arrays.copyOf(labelSizes, labelCount);
+        band.closedLargest = 0;
+        
+        for (int run = 0; run < runCount; run++)
+        {
+            if (parents[run] == run && labels[run] < 0)
+            {
+                band.closedLargest = Math.max(band.closedLargest, sizes[run]);
+            }
+        }
+    }
+    
+    // Method that gives the set run is in a label, unless it has one, and
+    // returns the number of labels given out.
+    private int label(int run, int[] labelSizes, int labelCount)
+    {
+        int root = find(run);
+        
+        if (labels[root] >= 0)
+        {
+            return labelCount;
+        }
+        
+        labels[root] = labelCount;
+        labelSizes[labelCount] = sizes[root];
+        return labelCount + 1;
+    }
+    
+    // Method that joins the blobs the bands summarize across the band edges
+    // and returns the size of the largest blob on the board.  Each band's
+    // labels come after the ones of the bands above.
+    private int joinBands()
+    {
+        int total = 0;
+        
+        for (Band band : bands)
+        {
+            total += band.labelSizes.length;
+        }
+        
+        ensureCapacity(total);
+        int best = 0;
+        int base = 0;
+        int aboveBase = 0;
+        
+        for (int i = 0; i < bands.length; i++)
+        {
+            Band band = bands[i];
+            best = Math.max(best, band.closedLargest);
+            
+            for (int label = 0; label < band.labelSizes.length; label++)
+            {
+                parents[base + label] = base + label;
+                sizes[base + label] = band.labelSizes[label];
+                best = Math.max(best, band.labelSizes[label]);
+            }
+            
+            if (i > 0)
+            {
+                Band above = bands[i - 1];
+                best = Math.max(best, joinRows(above, above.rowCount - 1, above.bottomLabels, aboveBase,
+                        band, 0, band.topLabels, base));
+            }
+            
+            aboveBase = base;
+            base += band.labelSizes.length;
+        }
+        
+        return best;
+    }
+    
+    // Method that joins the sets of the runs in a row of upper with those of
+    // the overlapping runs in the row below, which may be the top row of the
+    // next band, and returns the size of the largest set it made.  Without
+    // ids the sets are the runs themselves; with them, a run's set is base
+    // plus its entry in ids, counted from the start of its row.
+    private int joinRows(Band upper, int upperRow, int[] upperIds, int upperBase,
+            Band lower, int lowerRow, int[] lowerIds, int lowerBase)
+    {
+        int above = upper.offsets[upperRow];
+        int aboveEnd = upper.offsets[upperRow + 1];
+        int below = lower.offsets[lowerRow];
+        int belowEnd = lower.offsets[lowerRow + 1];
+        int best = 0;
+        
+        // Walk the two rows together; two runs touch when their column
+        // ranges overlap.
+        while (above < aboveEnd && below < belowEnd)
+        {
+            if (upper.starts[above] < lower.ends[below] && lower.starts[below] < upper.ends[above])
+            {
+                int first = upperIds == null ? above : upperBase + upperIds[above - upper.offsets[upperRow]];
+                int second = lowerIds == null ? below : lowerBase + lowerIds[below - lower.offsets[lowerRow]];
+                best = Math.max(best, union(first, second));
+            }
+            
+            if (upper.ends[above] < lower.ends[below])
+            {
+                above++;
+            }
+            else
+            {
+                below++;
+            }
+        }
+        
+        return best;
+    }
+    
+    private void ensureCapacity(int capacity)
+    {
+        if (parents.length < capacity)
+        {
+            int length = Math.max(capacity, parents.length * 2);
+            parents = new int[length];
+            sizes = new int[length];
+            labels = new int[length];
+        }
+    }
+    
+    // Method that joins two sets and returns the size of the result.
+    private int union(int first, int second)
+    {
+        int firstRoot = find(first);
+        int secondRoot = find(second);
+        
+        if (firstRoot != secondRoot)
+        {
+            if (sizes[firstRoot] < sizes[secondRoot])
+            {
+                int temp = firstRoot;
+                firstRoot = secondRoot;
+                secondRoot = temp;
+            }
+            
+            parents[secondRoot] = firstRoot;
+            sizes[firstRoot] += sizes[secondRoot];
+        }
+        
+        return sizes[firstRoot];
+    }
+    
+    private int find(int run)
+    {
+        while (parents[run] != run)
+        {
+            // Path halving.
+            parents[run] = parents[parents[run]];
+            run = parents[run];
+        }
+        
+        return run;
+    }
+    
+    // A band of consecutive rows, its runs and the summary of its blobs.
+    private static class Band
+    {
+        final int firstRow;
+        final int rowCount;
+        
+        //starts, ends, offsets:
+        //    The runs of all the band's rows, one after another, as
+        //    [starts, ends) column ranges; row i's runs are from offsets[i]
+        //    up to offsets[i + 1].  starts and ends are as long as the band
+        //    has runs, not as long as it could have.
+        int[] starts = new int[0];
+        int[] ends = new int[0];
+        final int[] offsets;
+        
+        //topLabels, bottomLabels:
+        //    For each run in the band's top and bottom row, the blob it is
+        //    in, as an index into labelSizes.
+        //labelSizes:
+        //    The number of cells, inside the band, of each blob that reaches
+        //    the top or bottom row.
+        //closedLargest:
+        //    The largest blob that reaches neither, so is whole already.
+        int[] topLabels = new int[0];
+        int[] bottomLabels = new int[0];
+        int[] labelSizes = new int[0];
+        int closedLargest;
+        
+        Band(int inFirstRow, int inRowCount)
+        {
+            firstRow = inFirstRow;
+            rowCount = inRowCount;
+            offsets = new int[rowCount + 1];
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package blocky;
+import java.awt.Color;
+import java.util.function.ToIntFunction;
+
+// Goal of making the largest connected blob of the target color.  Cells
+// connect through their edges, not their corners.  The score is the number
+// of unit cells in the largest blob.
+public class BlobGoal extends Goal
+{
+    public BlobGoal(Color color)
+    {
+        super(color);
+    }
+    
+    // Incremental version: only the rows the grid rewrote since the last
+    // score are scanned again, a word of cells at a time.
+    @Override
+    public int score(BoardGrid grid)
+    {
+        return grid.getBlobCounter(colorIndex).largestBlob(grid.getBitboards(), grid.getRowVersions());
+    }
+    
+    @Override
+    public int score(byte[] cells, int side)
+    {
+        return new BlobCounter(colorIndex, side).largestBlob(cells, null);
+    }
+    
+    // The counter's run arrays are bigger than the board itself, so they are
+    // kept for the next board.
+    @Override
+    public ToIntFunction<byte[]> newScorer(int side)
+    {
+        BlobCounter counter = new BlobCounter(colorIndex, side);
+        return cells -> counter.largestBlob(cells, null);
+    }
+
+    @Override
+    public String getDescription()
+    {
+        return "Make the largest connected blob of this color";
+    }
+}
@@ -1,7 +1,9 @@
 package blocky;
 import java.awt.Color;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.SplittableRandom;
 
 // A square block in the Blocky game.
 public class Block
@@ -40,14 +42,23 @@ public class Block
     //    level i+1.
     private int level;
     
-    //max_depth:
-    //    The deepest level allowed in the overall block structure.
-    public static int MAX_DEPTH = 5;
+    //maxDepth:
+    //    The deepest level allowed in the overall block structure.  Every
+    //    block in a tree has the same maxDepth, taken from its parent when
+    //    it is created; a byte, since it never exceeds DEPTH_LIMIT.
+    private final byte maxDepth;
     
-    // max_size:
-    //    The size of the biggest Block, and thus, the entire game board.
-    public final static int MAX_SIZE = 640;
+    //DEFAULT_MAX_DEPTH, DEFAULT_SIZE:
+    //    The depth and pixel size of a board when a game doesn't ask for
+    //    anything else.
+    public final static int DEFAULT_MAX_DEPTH = 5;
+    public final static int DEFAULT_SIZE = 640;
     
+    //DEPTH_LIMIT:
+    //    The deepest a board may go.  A board of depth d has 4^d unit cells,
+    //    and BoardGrid keeps a byte for each, so 15 already means 1 GB.
+    public final static int DEPTH_LIMIT = 15;
+
     //highlighted:
     //    True if the user has selected this block for action.
     private boolean highlighted;
@@ -61,6 +72,43 @@ public class Block
     //parent:
     //    The block that this block is directly within.
     Block parent;
+    
+    //orientation:
+    //    Clockwise quarter turns (0-3) that have been applied to this subtree
+    //    but not yet to the order of children.  Rotating a block only bumps
+    //    this; the children are reordered, and the turn handed down to them,
+    //    when they are next read.  A byte, with the stats reference below,
+    //    keeps a block the same size in memory.
+    private byte orientation;
+    
+    // Child order after 0-3 clockwise quarter turns: new slot i takes old slot ROTATIONS[k][i].
+    private final static int[][] ROTATIONS = {{0, 1, 2, 3}, {2, 0, 3, 1}, {3, 2, 1, 0}, {1, 3, 0, 2}};
+    
+    //hashes:
+    //    Zobrist-style hashes of this subtree as stored, turned 0, 1, 2 and 3
+    //    quarter turns clockwise.  Keeping all four lets a rotation update the
+    //    hash without touching the subtree.  Only trusted while hashValid is
+    //    set; changes clear hashValid on the path up to the root.
+    private long[] hashes;
+    private boolean hashValid;
+    
+    //stats:
+    //    For a subdivided block, what is under it: the unit cells of each
+    //    color in COLORS, then those of no palette color (the plain white
+    //    root), then the number of leaves and the level of the deepest one.
+    //    null until first asked for, and null for a leaf, which answers from
+    //    its own color and level.  A leaf count of 0 marks it stale after
+    //    changes below; swaps and rotations only reorder what is under a
+    //    block, so they never make it stale.
+    private int[] stats;
+    private final static int OTHER_AREA = COLORS.length;
+    private final static int LEAF_COUNT = COLORS.length + 1;
+    private final static int DEEPEST_LEVEL = COLORS.length + 2;
+
+    //listeners:
+    //    Objects told about changes anywhere in this tree.  Only the root
+    //    block keeps listeners; it is null everywhere else.
+    private List<BlockListener> listeners;
 
     /*
     === Notes ===
@@ -71,30 +119,78 @@ public class Block
         - their level is one greater than that of this Block,
         - their position is determined by the position and size of this Block
     - level <= max_depth
+    - size, xCoordinate and yCoordinate are where the block was last drawn.
+      BoardPainter lays them out from the root's size on every paint; the
+      rules of the game only ever look at levels and children.
     */
-
+    
     public Block()
     {
-        this(Color.WHITE, 0, MAX_SIZE, null);
+        this(DEFAULT_MAX_DEPTH, DEFAULT_SIZE);
+    }
+    
+    // Method that creates the plain white root of a board maxDepth levels
+    // deep, drawn size pixels across.
+    public Block(int inMaxDepth, int inSize)
+    {
+        this(Color.WHITE, 0, inSize, null, inMaxDepth);
     }
     
+    // A block with a parent gets its parent's maxDepth; one without gets
+    // DEFAULT_MAX_DEPTH.
     public Block(Color inColor, int inLevel, int inSize, Block inParent)
     {
+        this(inColor, inLevel, inSize, inParent, inParent == null ? DEFAULT_MAX_DEPTH : inParent.maxDepth);
+    }
+    
+    public Block(Color inColor, int inLevel, int inSize, Block inParent, int inMaxDepth)
+    {
+        if (inMaxDepth < 1 || inMaxDepth > DEPTH_LIMIT)
+        {
+            throw new IllegalArgumentException("Depth must be between 1 and " + DEPTH_LIMIT + ": " + inMaxDepth);
+        }
+        
+        maxDepth = (byte) inMaxDepth;
         xCoordinate = 0;
         yCoordinate = 0;
         size = inSize;
         color = inColor;
         level = inLevel;
         highlighted = false;
+        orientation = 0;
         children = new ArrayList<>();
         parent = inParent;
     }
     
+    // Method that makes a block taken back from a BlockPool look newly
+    // built: a leaf of the given color, with nothing cached.  It keeps its
+    // hash array and its children list, which the pool has emptied.
+    void recycle(Color inColor, int inLevel, int inSize, Block inParent)
+    {
+        xCoordinate = 0;
+        yCoordinate = 0;
+        size = inSize;
+        color = inColor;
+        level = inLevel;
+        highlighted = false;
+        orientation = 0;
+        parent = inParent;
+        hashValid = false;
+        listeners = null;
+        
+        if(stats != null)
+        {
+            stats[LEAF_COUNT] = 0;
+        }
+    }
+    
     // Method that swaps child elements horizontally or vertically
     public void swap(boolean isHorizontal)
     {
         if(!children.isEmpty())
         {
+            resolveOrientation();
+            
             // Retrieve the children
             Block tempChild0 = children.get(0);
             Block tempChild1 = children.get(1);
@@ -118,54 +214,507 @@ public class Block
                 children.set(2, tempChild0);
                 children.set(3, tempChild1);
             }
+            
+            fireBlockChanged();
         }
     }
     
-    // Method to recreate the children of the block
+    // Method to recreate the children of the block, with a seed taken from
+    // the game's random stream
     public void smash(Game game)
+    {
+        smash(game.nextSeed());
+    }
+    
+    // Method to recreate the children of the block from the given seed.  The
+    // same seed always gives the same children.
+    public void smash(long seed)
+    {
+        smash(seed, null);
+    }
+    
+    // Method that smashes like smash(seed), building the new children from
+    // pool's recycled blocks when pool isn't null.
+    public void smash(long seed, BlockPool pool)
     {
         //Only smash if not at level 0 or the max depth
-        if(level != 0 && level < MAX_DEPTH)
+        if(level != 0 && level < maxDepth)
         {
-            game.createRandomChildren(this);
+            long start = Metrics.ENABLED ? System.nanoTime() : 0;
+            Game.createRandomChildren(this, new SplittableRandom(seed), pool);
+            
+            if(Metrics.ENABLED)
+            {
+                Metrics.CREATE_RANDOM_CHILDREN.recordSince(start);
+            }
+            
+            fireBlockChanged();
         }
     }
     
-    // Method to rotate the children clockwise or counterclockwise
+    // Method to rotate the children clockwise or counterclockwise.  The
+    // rotation is only recorded here; the children are reordered the next
+    // time someone reads them, see resolveOrientation.
     public void rotate(boolean clockwise)
     {
         if(!children.isEmpty())
         {
-            // Retrieve the children
-            Block tempChild0 = children.get(0);
-            Block tempChild1 = children.get(1);
-            Block tempChild2 = children.get(2);
-            Block tempChild3 = children.get(3);
+            orientation = (byte) ((orientation + (clockwise ? 1 : 3)) & 3);
+            fireBlockChanged();
+        }
+    }
+    
+    // Method that applies the rotations still pending on this block and its
+    // ancestors, so that children is in upper-left, upper-right, lower-left,
+    // lower-right order.
+    void resolveOrientation()
+    {
+        if(parent != null)
+        {
+            parent.resolveOrientation();
+        }
+        
+        pushOrientation();
+    }
+    
+    // Method that reorders the children by this block's pending rotation and
+    // hands the same rotation down to each child.  Only valid once the
+    // ancestors have no pending rotation.
+    private void pushOrientation()
+    {
+        if(orientation != 0)
+        {
+            if(!children.isEmpty())
+            {
+                int[] permutation = ROTATIONS[orientation];
+                Block tempChild0 = children.get(permutation[0]);
+                Block tempChild1 = children.get(permutation[1]);
+                Block tempChild2 = children.get(permutation[2]);
+                Block tempChild3 = children.get(permutation[3]);
+                children.set(0, tempChild0);
+                children.set(1, tempChild1);
+                children.set(2, tempChild2);
+                children.set(3, tempChild3);
+                
+                for(Block child : children)
+                {
+                    child.orientation = (byte) ((child.orientation + orientation) & 3);
+                }
+            }
             
-            // Rotate the blocks clockwise
-            if(clockwise)
+            // The stored subtree is now what used to be the rotated one.
+            if(hashValid)
             {
-                children.set(0, tempChild2);
-                children.set(1, tempChild0);
-                children.set(2, tempChild3);
-                children.set(3, tempChild1);
+                long hash0 = hashes[orientation];
+                long hash1 = hashes[(orientation + 1) & 3];
+                long hash2 = hashes[(orientation + 2) & 3];
+                long hash3 = hashes[(orientation + 3) & 3];
+                hashes[0] = hash0;
+                hashes[1] = hash1;
+                hashes[2] = hash2;
+                hashes[3] = hash3;
+            }
+            
+            orientation = 0;
+        }
+    }
+    
+    // Method that returns the children in order when the caller reached this
+    // block from an already resolved parent, as in a top-down traversal.
+    List<Block> getResolvedChildren()
+    {
+        pushOrientation();
+        return children;
+    }
+
+    // Method that makes a deep copy of this block's subtree.  The copy has no
+    // parent and no listeners, and all rotations in it are already applied.
+    public Block copy()
+    {
+        Block copy = new Block(color, level, size, null, maxDepth);
+        copy.xCoordinate = xCoordinate;
+        copy.yCoordinate = yCoordinate;
+        copy.highlighted = highlighted;
+        copyChildrenInto(copy);
+        return copy;
+    }
+    
+    // Method that makes this subtree the same as source's, which must sit at
+    // the same level of a board as deep and as large.  Subtrees that already
+    // hash the same are left alone, and every subtree that is replaced tells
+    // the listeners, so keeping a copy in step with a board costs about as
+    // much as the moves played on the board since.  Only what the hash covers
+    // is copied: blocks and colors, not coordinates or highlighting.
+    void copyFrom(Block source)
+    {
+        if(getZobristHash() == source.getZobristHash())
+        {
+            return;
+        }
+        
+        List<Block> sourceChildren = source.getChildren();
+        List<Block> ownChildren = getChildren();
+        
+        if(!sourceChildren.isEmpty() && !ownChildren.isEmpty())
+        {
+            for(int i = 0; i < 4; i++)
+            {
+                ownChildren.get(i).copyFrom(sourceChildren.get(i));
+            }
+            
+            return;
+        }
+        
+        setChildren(new ArrayList<>());
+        source.copyChildrenInto(this);
+        setColor(source.color);
+        fireBlockChanged();
+    }
+    
+    private void copyChildrenInto(Block copy)
+    {
+        List<Block> resolvedChildren = getChildren();
+        
+        if(!resolvedChildren.isEmpty())
+        {
+            List<Block> copiedChildren = new ArrayList<>(4);
+            
+            for(Block child : resolvedChildren)
+            {
+                Block childCopy = new Block(child.color, child.level, child.size, copy);
+                childCopy.xCoordinate = child.xCoordinate;
+                childCopy.yCoordinate = child.yCoordinate;
+                childCopy.highlighted = child.highlighted;
+                child.copyChildrenInto(childCopy);
+                copiedChildren.add(childCopy);
             }
             
-            // Rotate the blocks counterclockwise
+            copy.children = copiedChildren;
+        }
+    }
+    
+    // Method that returns this block's index among its parent's children:
+    // 0 upper-left, 1 upper-right, 2 lower-left, 3 lower-right.  Returns -1
+    // for the root and for blocks that are no longer in their parent.
+    public int getQuadrant()
+    {
+        if(parent != null)
+        {
+            List<Block> siblings = parent.getChildren();
+            
+            for(int i = 0; i < siblings.size(); i++)
+            {
+                if(siblings.get(i) == this)
+                {
+                    return i;
+                }
+            }
+        }
+        
+        return -1;
+    }
+    
+    // Method that flattens this block into a grid of unit cells, one per
+    // block at maxDepth, holding indexes into COLORS.  The grid is stored
+    // row by row and is 2^(maxDepth - level) cells wide.
+    public byte[] flatten()
+    {
+        int side = 1 << (maxDepth - level);
+        byte[] cells = new byte[side * side];
+        resolveOrientation();
+        fillCells(cells, side, 0, 0, maxDepth);
+        return cells;
+    }
+    
+    // Method that writes this subtree into a grid of the given side length,
+    // with this block's upper-left cell at (row, column).
+    void fillCells(byte[] cells, int side, int row, int column, int depth)
+    {
+        int span = 1 << (depth - level);
+        List<Block> resolvedChildren = getResolvedChildren();
+        
+        if(resolvedChildren.isEmpty())
+        {
+            byte colorIndex = (byte) colorIndex(color);
+            
+            for(int i = row; i < row + span; i++)
+            {
+                Arrays.fill(cells, i * side + column, i * side + column + span, colorIndex);
+            }
+        }
+        else
+        {
+            int half = span / 2;
+            resolvedChildren.get(0).fillCells(cells, side, row, column, depth);
+            resolvedChildren.get(1).fillCells(cells, side, row, column + half, depth);
+            resolvedChildren.get(2).fillCells(cells, side, row + half, column, depth);
+            resolvedChildren.get(3).fillCells(cells, side, row + half, column + half, depth);
+        }
+    }
+    
+    // Method that registers a listener on the tree this block is the root of.
+    public void addBlockListener(BlockListener listener)
+    {
+        if(listeners == null)
+        {
+            listeners = new ArrayList<>();
+        }
+        
+        listeners.add(listener);
+    }
+    
+    public void removeBlockListener(BlockListener listener)
+    {
+        if(listeners != null)
+        {
+            listeners.remove(listener);
+        }
+    }
+    
+    // Method that returns the root of the tree this block is in.
+    public Block getRoot()
+    {
+        Block root = this;
+        
+        while(root.parent != null)
+        {
+            root = root.parent;
+        }
+        
+        return root;
+    }
+    
+    // Method that returns a hash of this block's subtree as it appears on the
+    // board, built from a random key for every leaf's level and color and a
+    // random key for every quadrant a child sits in.  Boards with the same
+    // blocks in the same places hash the same, however they got there.
+    // Changes only rehash the blocks between the change and the root.
+    public long getZobristHash()
+    {
+        resolveOrientation();
+        return subtreeHashes()[0];
+    }
+    
+    private long[] subtreeHashes()
+    {
+        if(!hashValid)
+        {
+            if(hashes == null)
+            {
+                hashes = new long[4];
+            }
+            
+            if(children.isEmpty())
+            {
+                Arrays.fill(hashes, ZobristKeys.leafKey(level, colorIndex(color)));
+            }
             else
             {
-                children.set(0, tempChild1);
-                children.set(1, tempChild3);
-                children.set(2, tempChild0);
-                children.set(3, tempChild2);
+                for(int turns = 0; turns < 4; turns++)
+                {
+                    long hash = 0;
+                    
+                    for(int quadrant = 0; quadrant < 4; quadrant++)
+                    {
+                        // Turning this block also turns each child on top of its own pending turns.
+                        Block child = children.get(ROTATIONS[turns][quadrant]);
+                        long childHash = child.subtreeHashes()[(turns + child.orientation) & 3];
+                        hash ^= ZobristKeys.quadrantKey(level, quadrant, childHash);
+                    }
+                    
+                    hashes[turns] = hash;
+                }
             }
             
-            // Rotate the children recursively
+            hashValid = true;
+        }
+        
+        return hashes;
+    }
+    
+    // Method that marks the hashes from this block up to the root as stale.
+    private void invalidateHashes()
+    {
+        for(Block block = this; block != null && block.hashValid; block = block.parent)
+        {
+            block.hashValid = false;
+        }
+    }
+    
+    // Method that returns the number of unit cells, blocks at maxDepth, that
+    // this block covers.
+    public int getArea()
+    {
+        return 1 << (2 * (maxDepth - level));
+    }
+    
+    // Method that returns how many unit cells under this block have the
+    // color COLORS[colorIndex].
+    public int getColorArea(int colorIndex)
+    {
+        if(children.isEmpty())
+        {
+            return colorIndex(color) == colorIndex ? getArea() : 0;
+        }
+        
+        return subtreeStats()[colorIndex];
+    }
+    
+    // Method that returns how many unit cells under this block have each
+    // color in COLORS, in the same order.  Cells of no palette color, which
+    // only a plain white root has, aren't counted.
+    public int[] getColorAreas()
+    {
+        int[] areas = new int[COLORS.length];
+        
+        for(int i = 0; i < areas.length; i++)
+        {
+            areas[i] = getColorArea(i);
+        }
+        
+        return areas;
+    }
+    
+    // Method that returns the number of leaves under this block, or 1 if it
+    // is a leaf.
+    public int getLeafCount()
+    {
+        return children.isEmpty() ? 1 : subtreeStats()[LEAF_COUNT];
+    }
+    
+    // Method that returns the level of the deepest leaf under this block, or
+    // its own level if it is a leaf.
+    public int getDeepestLevel()
+    {
+        return children.isEmpty() ? level : subtreeStats()[DEEPEST_LEVEL];
+    }
+    
+    // Method that returns stats, working them out again for the blocks below
+    // that have changed since they were last asked for.  Only for a
+    // subdivided block.  The totals don't depend on the order of children,
+    // so children can be read with rotations still pending.
+    private int[] subtreeStats()
+    {
+        if(stats == null)
+        {
+            stats = new int[COLORS.length + 3];
+        }
+        
+        if(stats[LEAF_COUNT] == 0)
+        {
+            Arrays.fill(stats, 0);
+            
             for(Block child : children)
             {
-                child.rotate(clockwise);
+                if(child.children.isEmpty())
+                {
+                    int colorIndex = colorIndex(child.color);
+                    stats[colorIndex < 0 ? OTHER_AREA : colorIndex] += child.getArea();
+                    stats[LEAF_COUNT]++;
+                    stats[DEEPEST_LEVEL] = Math.max(stats[DEEPEST_LEVEL], child.level);
+                }
+                else
+                {
+                    int[] childStats = child.subtreeStats();
+                    
+                    for(int i = 0; i <= LEAF_COUNT; i++)
+                    {
+                        stats[i] += childStats[i];
+                    }
+                    
+                    stats[DEEPEST_LEVEL] = Math.max(stats[DEEPEST_LEVEL], childStats[DEEPEST_LEVEL]);
+                }
             }
         }
+        
+        return stats;
+    }
+    
+    // Method that marks the stats of this block and those above it as stale.
+    // This block may have been a leaf, with no stats, when its ancestors'
+    // were worked out, so the walk up starts at its parent whatever it finds
+    // here.
+    private void invalidateStats()
+    {
+        if(stats != null)
+        {
+            stats[LEAF_COUNT] = 0;
+        }
+        
+        for(Block block = parent; block != null && block.stats != null && block.stats[LEAF_COUNT] != 0; block = block.parent)
+        {
+            block.stats[LEAF_COUNT] = 0;
+        }
+    }
+    
+    // Method that returns the average color of the leaves under this block,
+    // weighted by area, as an opaque RGB value: what the block looks like
+    // when it is too small to draw its children.  Worked out from the color
+    // areas, so it costs the same at any depth.
+    public int getAverageRgb()
+    {
+        if(children.isEmpty())
+        {
+            return (color == null ? Color.WHITE : color).getRGB();
+        }
+        
+        int[] areas = subtreeStats();
+        long red = areas[OTHER_AREA] * 255L;
+        long green = red;
+        long blue = red;
+        
+        for(int i = 0; i < COLORS.length; i++)
+        {
+            red += (long) areas[i] * COLORS[i].getRed();
+            green += (long) areas[i] * COLORS[i].getGreen();
+            blue += (long) areas[i] * COLORS[i].getBlue();
+        }
+        
+        long area = getArea();
+        return 0xFF000000 | (int) (red / area) << 16 | (int) (green / area) << 8 | (int) (blue / area);
+    }
+
+    // Method that tells the root's listeners that this block's subtree changed.
+    void fireBlockChanged()
+    {
+        invalidateHashes();
+        List<BlockListener> rootListeners = getRoot().listeners;
+        
+        if(rootListeners != null)
+        {
+            for(BlockListener listener : rootListeners)
+            {
+                listener.blockChanged(this);
+            }
+        }
+    }
+    
+    private void fireHighlightChanged()
+    {
+        List<BlockListener> rootListeners = getRoot().listeners;
+        
+        if(rootListeners != null)
+        {
+            for(BlockListener listener : rootListeners)
+            {
+                listener.highlightChanged(this);
+            }
+        }
+    }
+    
+    // Method that returns the index of a color in COLORS, or -1 if the color
+    // is not part of the palette (e.g. null for a subdivided block).
+    public static int colorIndex(Color color)
+    {
+        for(int i = 0; i < COLORS.length; i++)
+        {
+            if(COLORS[i] == color)
+            {
+                return i;
+            }
+        }
+
+        return -1;
     }
 
     public int getXCoordinate()
@@ -192,6 +741,11 @@ public class Block
     {
         return level;
     }
+    
+    public int getMaxDepth()
+    {
+        return maxDepth;
+    }
 
     public boolean isHighlighted()
     {
@@ -200,6 +754,7 @@ public class Block
 
     public List<Block> getChildren()
     {
+        resolveOrientation();
         return children;
     }
 
@@ -226,6 +781,8 @@ public class Block
     public void setColor(Color color)
     {
         this.color = color;
+        invalidateHashes();
+        invalidateStats();
     }
 
     public void setLevel(int level)
@@ -235,12 +792,25 @@ public class Block
 
     public void setHighlighted(boolean highlighted)
     {
-        this.highlighted = highlighted;
+        if(this.highlighted != highlighted)
+        {
+            this.highlighted = highlighted;
+            fireHighlightChanged();
+        }
     }
 
     public void setChildren(List<Block> children)
     {
+        // Any rotation still owed to the old children no longer applies.
+        if(parent != null)
+        {
+            parent.resolveOrientation();
+        }
+        
+        orientation = 0;
         this.children = children;
+        invalidateHashes();
+        invalidateStats();
     }
 
     public void setParent(Block parent)
@@ -0,0 +1,554 @@
+package blocky;
+import java.awt.Color;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+
+// A Blocky board stored in parallel primitive arrays instead of one Block
+// object per node.  Meant for simulations with very many or very deep boards,
+// where the object-per-node layout of Block spends most of its time in GC.
+//
+// Experimental: this is not a backend Game or GameRenderer can run on.  They
+// only work with Block trees, and Block is a concrete class, so there is no
+// thin Block view over an arena; fromBlock and toBlock copy the whole tree,
+// and pay for every node the arena was meant to save.  The arena only pays
+// off for code written against it directly, such as bulk simulations and
+// scans; see bench/blocky/BlockArenaBenchmark.
+public class BlockArena
+{
+    //=== Layout ===
+    //    Nodes are allocated in quads of four siblings.  Node n lives in quad
+    //    n / 4 at slot n % 4, and the slots are ordered like Block.children:
+    //    upper-left, upper-right, lower-left, lower-right.  Quad 0 only holds
+    //    the root, in slot 0.
+    public final static int ROOT = 0;
+
+    // Value of firstChild for a node that is not subdivided.
+    public final static int NO_CHILDREN = -1;
+
+    // Value of colors for a node that is subdivided.
+    public final static byte NO_COLOR = -1;
+
+    // levelFlags packs the level into the low bits, the pending orientation
+    // above it and flags into the high bits.
+    final static int LEVEL_MASK = 0x0F;
+    final static int ORIENTATION_SHIFT = 4;
+    final static int ORIENTATION_MASK = 0x30;
+    final static int HIGHLIGHTED_FLAG = 0x40;
+    final static int FREE_FLAG = 0x80;
+
+    // Child permutations used by swap and rotate: new slot i takes old slot perm[i].
+    final static int[] SWAP_HORIZONTAL = {1, 0, 3, 2};
+    final static int[] SWAP_VERTICAL = {2, 3, 0, 1};
+    final static int[] ROTATE_CLOCKWISE = {2, 0, 3, 1};
+    final static int[] ROTATE_COUNTERCLOCKWISE = {1, 3, 0, 2};
+
+    // Child order after 0-3 clockwise quarter turns, as in Block.
+    private final static int[][] ROTATIONS = {{0, 1, 2, 3}, ROTATE_CLOCKWISE, {3, 2, 1, 0}, ROTATE_COUNTERCLOCKWISE};
+
+    //colors:
+    //    Index into Block.COLORS for each leaf, NO_COLOR for subdivided nodes.
+    private byte[] colors;
+
+    //firstChild:
+    //    The node index of the upper-left child, or NO_CHILDREN.  The other
+    //    three children always follow it in the same quad.
+    private int[] firstChild;
+
+    //levelFlags:
+    //    The level of each node, the clockwise quarter turns applied to its
+    //    subtree but not yet to the order of its children, and its
+    //    HIGHLIGHTED and FREE flags.  Like Block, rotating only bumps the
+    //    orientation; the children are reordered, and the turn handed down
+    //    to them, when they are next read.
+    private byte[] levelFlags;
+
+    //quadParent:
+    //    The node that owns each quad.  For quads on the free list this holds
+    //    the next free quad instead.
+    private int[] quadParent;
+
+    // Number of quads handed out so far, and the head of the free list.
+    private int quadCount;
+    private int freeQuad;
+
+    //maxDepth:
+    //    The deepest level allowed in this board, at most LEVEL_MASK.
+    private final int maxDepth;
+
+    //size:
+    //    The root's width in pixels.
+    private final int size;
+
+    public BlockArena()
+    {
+        this(Block.DEFAULT_MAX_DEPTH, 64);
+    }
+
+    public BlockArena(int inMaxDepth, int initialQuads)
+    {
+        this(inMaxDepth, Block.DEFAULT_SIZE, initialQuads);
+    }
+
+    public BlockArena(int inMaxDepth, int inSize, int initialQuads)
+    {
+        if(inMaxDepth > LEVEL_MASK)
+        {
+            throw new IllegalArgumentException("BlockArena boards are at most " + LEVEL_MASK + " levels deep");
+        }
+
+        maxDepth = inMaxDepth;
+        size = inSize;
+        int capacity = Math.max(1, initialQuads);
+        colors = new byte[capacity * 4];
+        firstChild = new int[capacity * 4];
+        levelFlags = new byte[capacity * 4];
+        quadParent = new int[capacity];
+        freeQuad = -1;
+
+        // Quad 0 only holds the white root.
+        quadCount = 1;
+        quadParent[0] = -1;
+        Arrays.fill(firstChild, 0, 4, NO_CHILDREN);
+        Arrays.fill(levelFlags, 1, 4, (byte) FREE_FLAG);
+        colors[ROOT] = NO_COLOR;
+    }
+
+    // Method that builds a random board the same way Game does.  Given the
+    // same seed it builds the same board as new Game(seed) at this depth.
+    public static BlockArena createRandomBoard(int maxDepth, long seed)
+    {
+        BlockArena arena = new BlockArena(maxDepth, 64);
+        arena.createRandomChildren(ROOT, new SplittableRandom(new SplittableRandom(seed).nextLong()));
+        return arena;
+    }
+
+    // Method that copies an existing Block tree into a new arena.
+    public static BlockArena fromBlock(Block root)
+    {
+        BlockArena arena = new BlockArena(root.getMaxDepth(), root.getSize(), 64);
+        arena.colors[ROOT] = (byte) Block.colorIndex(root.getColor());
+        arena.setHighlighted(ROOT, root.isHighlighted());
+        arena.copyChildren(root, ROOT);
+        return arena;
+    }
+
+    private void copyChildren(Block block, int node)
+    {
+        List<Block> children = block.getChildren();
+
+        if(!children.isEmpty())
+        {
+            int first = allocateQuad(node);
+
+            for(int i = 0; i < 4; i++)
+            {
+                Block child = children.get(i);
+                colors[first + i] = (byte) Block.colorIndex(child.getColor());
+                setHighlighted(first + i, child.isHighlighted());
+                copyChildren(child, first + i);
+            }
+        }
+    }
+
+    // Method that builds a Block tree with the same shape and colors, so the
+    // arena can be handed to Game and GameRenderer.
+    public Block toBlock()
+    {
+        Block root = new Block(maxDepth, size);
+        root.setColor(getColor(ROOT));
+        root.setHighlighted(isHighlighted(ROOT));
+        copyChildren(ROOT, root);
+        return root;
+    }
+
+    private void copyChildren(int node, Block block)
+    {
+        // The parent is already resolved on the way down.
+        pushOrientation(node);
+        int first = firstChild[node];
+
+        if(first != NO_CHILDREN)
+        {
+            List<Block> children = new ArrayList<>(4);
+
+            for(int i = 0; i < 4; i++)
+            {
+                Block child = new Block(getColor(first + i), getLevel(first + i), getSize(first + i), block);
+                child.setHighlighted(isHighlighted(first + i));
+                copyChildren(first + i, child);
+                children.add(child);
+            }
+
+            block.setChildren(children);
+        }
+    }
+
+    // Method that gives node four random children, drawing from random in
+    // the same order as Game.createRandomChildren.  Any children node had
+    // are freed first.
+    public void createRandomChildren(int node, SplittableRandom random)
+    {
+        resolveAncestors(node);
+        freeChildren(node);
+        fillRandomChildren(node, random);
+    }
+
+    // Method that does the work of createRandomChildren on a node with no
+    // children.
+    private void fillRandomChildren(int node, SplittableRandom random)
+    {
+        int childrenLevel = getLevel(node) + 1;
+        int first = allocateQuad(node);
+
+        //Create four blocks with random color
+        for(int i = 0; i < 4; i++)
+        {
+            colors[first + i] = (byte) random.nextInt(Block.COLORS.length);
+        }
+
+        if(childrenLevel < maxDepth)
+        {
+            if (random.nextDouble() < Math.exp(-0.25 * childrenLevel))
+            {
+                SplittableRandom[] streams = new SplittableRandom[4];
+
+                for(int i = 0; i < 4; i++)
+                {
+                    streams[i] = random.split();
+                }
+
+                for(int i = 0; i < 4; i++)
+                {
+                    fillRandomChildren(first + i, streams[i]);
+                }
+            }
+        }
+    }
+
+    // Method that swaps the children of node horizontally or vertically
+    public void swap(int node, boolean isHorizontal)
+    {
+        resolveOrientation(node);
+
+        if(firstChild[node] != NO_CHILDREN)
+        {
+            permuteChildren(node, isHorizontal ? SWAP_HORIZONTAL : SWAP_VERTICAL);
+        }
+    }
+
+    // Method to rotate the subtree under node clockwise or counterclockwise.
+    // The rotation is only recorded here; see resolveOrientation.
+    public void rotate(int node, boolean clockwise)
+    {
+        resolveAncestors(node);
+
+        if(firstChild[node] != NO_CHILDREN)
+        {
+            addOrientation(node, clockwise ? 1 : 3);
+        }
+    }
+
+    // Method that applies the rotations still pending above node and on node
+    // itself, so that node's slot and its children's slots hold what an
+    // eager rotation would have put there.
+    private void resolveOrientation(int node)
+    {
+        resolveAncestors(node);
+        pushOrientation(node);
+    }
+
+    // Method that applies the rotations pending on every ancestor of node.
+    private void resolveAncestors(int node)
+    {
+        if(node != ROOT)
+        {
+            resolveQuad(node >> 2);
+        }
+    }
+
+    // Method that puts the four nodes of quad in their final order.  A
+    // permutation only moves nodes within their quad, so the owner stays in
+    // the same quad as its own ancestors are resolved, but may change slot;
+    // it is looked up again afterwards.
+    private void resolveQuad(int quad)
+    {
+        if(quadParent[quad] != ROOT)
+        {
+            resolveQuad(quadParent[quad] >> 2);
+        }
+
+        pushOrientation(quadParent[quad]);
+    }
+
+    // Method that reorders node's children by its pending rotation and hands
+    // the same rotation down to each child.  Only valid once node's
+    // ancestors have no pending rotation.
+    private void pushOrientation(int node)
+    {
+        int orientation = (levelFlags[node] & ORIENTATION_MASK) >> ORIENTATION_SHIFT;
+
+        if(orientation != 0)
+        {
+            int first = firstChild[node];
+
+            if(first != NO_CHILDREN)
+            {
+                permuteChildren(node, ROTATIONS[orientation]);
+
+                for(int i = 0; i < 4; i++)
+                {
+                    addOrientation(first + i, orientation);
+                }
+            }
+
+            levelFlags[node] &= ~ORIENTATION_MASK;
+        }
+    }
+
+    private void addOrientation(int node, int turns)
+    {
+        int orientation = ((levelFlags[node] & ORIENTATION_MASK) >> ORIENTATION_SHIFT) + turns;
+        levelFlags[node] = (byte) ((levelFlags[node] & ~ORIENTATION_MASK) | ((orientation & 3) << ORIENTATION_SHIFT));
+    }
+
+    // Method to recreate the children of node from the given seed, like Block.smash
+    public void smash(int node, long seed)
+    {
+        //Only smash if not at level 0 or the max depth
+        int level = getLevel(node);
+
+        if(level != 0 && level < maxDepth)
+        {
+            createRandomChildren(node, new SplittableRandom(seed));
+        }
+    }
+
+    // Method that moves the four records of a quad around.  The children of
+    // each moved node stay where they are; only their owner is updated.
+    private void permuteChildren(int node, int[] permutation)
+    {
+        int first = firstChild[node];
+        byte[] oldColors = new byte[4];
+        int[] oldFirstChild = new int[4];
+        byte[] oldLevelFlags = new byte[4];
+
+        for(int i = 0; i < 4; i++)
+        {
+            oldColors[i] = colors[first + i];
+            oldFirstChild[i] = firstChild[first + i];
+            oldLevelFlags[i] = levelFlags[first + i];
+        }
+
+        for(int i = 0; i < 4; i++)
+        {
+            int from = permutation[i];
+            colors[first + i] = oldColors[from];
+            firstChild[first + i] = oldFirstChild[from];
+            levelFlags[first + i] = oldLevelFlags[from];
+
+            if(oldFirstChild[from] != NO_CHILDREN)
+            {
+                quadParent[oldFirstChild[from] >> 2] = first + i;
+            }
+        }
+    }
+
+    // Method that hands out a quad for the children of node, reusing freed
+    // quads before growing the arrays.
+    private int allocateQuad(int node)
+    {
+        int quad;
+
+        if(freeQuad != -1)
+        {
+            quad = freeQuad;
+            freeQuad = quadParent[quad];
+        }
+        else
+        {
+            if(quadCount == quadParent.length)
+            {
+                grow();
+            }
+
+            quad = quadCount++;
+        }
+
+        int first = quad << 2;
+        byte childLevelFlags = (byte) (getLevel(node) + 1);
+
+        for(int i = 0; i < 4; i++)
+        {
+            colors[first + i] = 0;
+            firstChild[first + i] = NO_CHILDREN;
+            levelFlags[first + i] = childLevelFlags;
+        }
+
+        quadParent[quad] = node;
+        firstChild[node] = first;
+        colors[node] = NO_COLOR;
+
+        // Rotations owed to the old children don't apply to new ones.
+        levelFlags[node] &= ~ORIENTATION_MASK;
+        return first;
+    }
+
+    // Method that returns every quad below node to the free list.
+    private void freeChildren(int node)
+    {
+        int first = firstChild[node];
+
+        if(first != NO_CHILDREN)
+        {
+            for(int i = 0; i < 4; i++)
+            {
+                freeChildren(first + i);
+                levelFlags[first + i] = (byte) FREE_FLAG;
+            }
+
+            quadParent[first >> 2] = freeQuad;
+            freeQuad = first >> 2;
+            firstChild[node] = NO_CHILDREN;
+        }
+    }
+
+    private void grow()
+    {
+        int quads = quadParent.length * 2;
+        colors = Arrays.copyOf(colors, quads * 4);
+        firstChild = Arrays.copyOf(firstChild, quads * 4);
+        levelFlags = Arrays.copyOf(levelFlags, quads * 4);
+        quadParent = Arrays.copyOf(quadParent, quads);
+    }
+
+    // Method that returns the unit-cell area covered by each palette color.
+    // Live leaves are found with a linear scan of the arrays, so no pointers
+    // are followed.
+    public long[] colorArea()
+    {
+        long[] area = new long[Block.COLORS.length];
+        int nodes = quadCount * 4;
+
+        for(int node = 0; node < nodes; node++)
+        {
+            int flags = levelFlags[node];
+
+            if((flags & FREE_FLAG) == 0 && firstChild[node] == NO_CHILDREN && colors[node] >= 0)
+            {
+                area[colors[node]] += 1L << (2 * (maxDepth - (flags & LEVEL_MASK)));
+            }
+        }
+
+        return area;
+    }
+
+    // Method that returns the number of nodes currently in the tree.
+    public int nodeCount()
+    {
+        int count = 0;
+        int nodes = quadCount * 4;
+
+        for(int node = 0; node < nodes; node++)
+        {
+            if((levelFlags[node] & FREE_FLAG) == 0)
+            {
+                count++;
+            }
+        }
+
+        return count;
+    }
+
+    // Method that returns an estimate of the bytes held by the arrays.
+    public long memoryFootprint()
+    {
+        return colors.length + 4L * firstChild.length + levelFlags.length + 4L * quadParent.length;
+    }
+
+    public int getChild(int node, int index)
+    {
+        resolveOrientation(node);
+        return firstChild[node] == NO_CHILDREN ? NO_CHILDREN : firstChild[node] + index;
+    }
+
+    public boolean hasChildren(int node)
+    {
+        resolveAncestors(node);
+        return firstChild[node] != NO_CHILDREN;
+    }
+
+    public int getParent(int node)
+    {
+        resolveAncestors(node);
+        return node == ROOT ? -1 : quadParent[node >> 2];
+    }
+
+    public int getColorIndex(int node)
+    {
+        resolveAncestors(node);
+        return colors[node];
+    }
+
+    public Color getColor(int node)
+    {
+        resolveAncestors(node);
+        int index = colors[node];
+
+        if(index >= 0)
+        {
+            return Block.COLORS[index];
+        }
+
+        return node == ROOT && firstChild[node] == NO_CHILDREN ? Color.WHITE : null;
+    }
+
+    public int getLevel(int node)
+    {
+        return levelFlags[node] & LEVEL_MASK;
+    }
+
+    // Method that returns the node's width in pixels: the board's size,
+    // halved once per level.
+    public int getSize(int node)
+    {
+        return size >> getLevel(node);
+    }
+
+    public int getSize()
+    {
+        return size;
+    }
+
+    public int getMaxDepth()
+    {
+        return maxDepth;
+    }
+
+    public boolean isHighlighted(int node)
+    {
+        resolveAncestors(node);
+        return (levelFlags[node] & HIGHLIGHTED_FLAG) != 0;
+    }
+
+    public void setColorIndex(int node, int colorIndex)
+    {
+        resolveAncestors(node);
+        colors[node] = (byte) colorIndex;
+    }
+
+    public void setHighlighted(int node, boolean highlighted)
+    {
+        resolveAncestors(node);
+
+        if(highlighted)
+        {
+            levelFlags[node] |= HIGHLIGHTED_FLAG;
+        }
+        else
+        {
+            levelFlags[node] &= ~HIGHLIGHTED_FLAG;
+        }
+    }
+}
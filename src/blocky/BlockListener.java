@@ -0,0 +1,15 @@
+package blocky;
+
+// Receives notifications when a Block tree changes.  Listeners are
+// registered on the root block and hear about changes anywhere below it.
+public interface BlockListener
+{
+    // Called after the children of block were swapped, rotated or replaced.
+    // Only block's own rectangle on the board is affected.
+    void blockChanged(Block block);
+
+    // Called after block was highlighted or unhighlighted.
+    default void highlightChanged(Block block)
+    {
+    }
+}
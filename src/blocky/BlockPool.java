@@ -0,0 +1,144 @@
+package blocky;
+import java.awt.Color;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+// Blocks and child lists that have left the board for good, kept for the
+// next smash to build with instead of allocating.  A pool holds at most
+// capacity blocks and as many lists; anything released past that is left
+// to the garbage collector.
+//
+// Only release subtrees nothing else can reach any more: a Game releases
+// smashed-off children once they fall out of its undo and redo history,
+// and a search releases the children it smashed to score a move once it
+// has put the old ones back.  A pool is not thread-safe, and serves boards
+// of a single depth, since a block's maxDepth can't change.
+public class BlockPool
+{
+    private final int maxDepth;
+    private final int capacity;
+    
+    private final ArrayDeque<Block> blocks = new ArrayDeque<>();
+    private final ArrayDeque<List<Block>> lists = new ArrayDeque<>();
+    
+    //hits, misses:
+    //    Blocks handed out from the pool, and those that had to be built.
+    //dropped:
+    //    Blocks released while the pool was full.
+    private long hits;
+    private long misses;
+    private long dropped;
+    
+    public BlockPool(int inMaxDepth, int inCapacity)
+    {
+        maxDepth = inMaxDepth;
+        capacity = inCapacity;
+    }
+    
+    // Method that returns a leaf block, recycled if the pool has one.
+    public Block acquire(Color color, int level, int size, Block parent)
+    {
+        Block block = blocks.poll();
+        
+        if (block == null)
+        {
+            misses++;
+            return new Block(color, level, size, parent, maxDepth);
+        }
+        
+        hits++;
+        
+        if (Metrics.ENABLED)
+        {
+            Metrics.BLOCKS_REUSED.increment();
+        }
+        
+        block.recycle(color, level, size, parent);
+        return block;
+    }
+    
+    // Method that returns an empty list for a block's children.
+    public List<Block> acquireList()
+    {
+        List<Block> list = lists.poll();
+        return list == null ? new ArrayList<>(4) : list;
+    }
+    
+    // Method that takes back a list of children and every block under them.
+    public void release(List<Block> children)
+    {
+        for (Block child : children)
+        {
+            releaseBlock(child);
+        }
+        
+        children.clear();
+        
+        if (lists.size() < capacity)
+        {
+            lists.push(children);
+        }
+    }
+    
+    private void releaseBlock(Block block)
+    {
+        // The order of the children doesn't matter here, so pending
+        // rotations are left alone.
+        for (Block child : block.children)
+        {
+            releaseBlock(child);
+        }
+        
+        block.children.clear();
+        
+        if (blocks.size() < capacity && block.getMaxDepth() == maxDepth)
+        {
+            blocks.push(block);
+        }
+        else
+        {
+            dropped++;
+        }
+    }
+    
+    // Method that returns the share of acquired blocks that were recycled.
+    public double getHitRate()
+    {
+        long total = hits + misses;
+        return total == 0 ? 0 : (double) hits / total;
+    }
+    
+    public long getHits()
+    {
+        return hits;
+    }
+    
+    public long getMisses()
+    {
+        return misses;
+    }
+    
+    public long getDropped()
+    {
+        return dropped;
+    }
+    
+    // Method that returns the number of blocks waiting to be reused.
+    public int size()
+    {
+        return blocks.size();
+    }
+    
+    public int getCapacity()
+    {
+        return capacity;
+    }
+    
+    @Override
+    public String toString()
+    {
+        return String.format("pool size=%d/%d hits=%d misses=%d hitRate=%.2f dropped=%d",
+                size(), capacity, hits, misses, getHitRate(), dropped);
+    }
+}
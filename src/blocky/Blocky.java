@@ -1,11 +1,128 @@
 package blocky;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+
 public class Blocky
 {
-    public static void main(String[] args)
+    public static void main(String[] args) throws InterruptedException, IOException
     {
-        Game game = new Game();
+        // Play games without a window, see HeadlessRunner for the options.
+        if (args.length > 0 && args[0].equals("--headless"))
+        {
+            HeadlessRunner.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+        
+        // Serve games over a localhost socket, or drive a server with random
+        // moves; see GameServer and LoadGenerator for the options.
+        if (args.length > 0 && args[0].equals("--server"))
+        {
+            GameServer.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+        
+        if (args.length > 0 && args[0].equals("--load"))
+        {
+            LoadGenerator.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+        
+        // With --journal <file>, pick up the game journaled there, if any,
+        // and append its new moves to the same log, so the moves of earlier
+        // runs are kept; a journal is only started afresh when there is none.
+        // With --autosave <file>, pick up the board checkpointed there and
+        // keep checkpointing to it.  Given both, the journal wins, since it
+        // has every move.  --depth and --size set up a new board; a recovered
+        // game keeps its own.
+        Path journalPath = null;
+        Path autosavePath = null;
+        int depth = Block.DEFAULT_MAX_DEPTH;
+        int size = Block.DEFAULT_SIZE;
+        
+        for (int i = 0; i + 1 < args.length; i += 2)
+        {
+            switch (args[i])
+            {
+                case "--journal":
+                    journalPath = Paths.get(args[i + 1]);
+                    break;
+                case "--autosave":
+                    autosavePath = Paths.get(args[i + 1]);
+                    break;
+                case "--depth":
+                    depth = Integer.parseInt(args[i + 1]);
+                    break;
+                case "--size":
+                    size = Integer.parseInt(args[i + 1]);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+        
+        Game game;
+        boolean journalFound = journalPath != null && Files.exists(GameJournal.snapshotPathOf(journalPath));
+        
+        if (journalFound)
+        {
+            game = GameJournal.recover(journalPath);
+        }
+        else if (autosavePath != null && Files.exists(autosavePath))
+        {
+            game = GameCheckpointer.restore(autosavePath);
+        }
+        else
+        {
+            game = new Game(depth, size);
+        }
+        
+        if (journalPath != null)
+        {
+            GameJournal journal = journalFound ? GameJournal.resume(journalPath, game)
+                    : GameJournal.start(journalPath, game);
+            game.setJournal(journal);
+            
+            // The window exits the JVM when closed; write out what is queued.
+            Runtime.getRuntime().addShutdownHook(new Thread(() ->
+            {
+                try
+                {
+                    journal.close();
+                }
+                catch (IOException e)
+                {
+                    throw new UncheckedIOException(e);
+                }
+            }));
+        }
+        
+        game.addPlayer(new ComputerPlayer("Computer", new BlobGoal(Block.REAL_RED)));
         GameRenderer gameRenderer = new GameRenderer(game);
+        
+        if (autosavePath != null)
+        {
+            GameCheckpointer checkpointer = GameCheckpointer.start(autosavePath, game,
+                    gameRenderer::runOnRenderThread, GameCheckpointer.DEFAULT_DELAY_MILLIS);
+            
+            // Catch the moves made since the last checkpoint.
+            Runtime.getRuntime().addShutdownHook(new Thread(() ->
+            {
+                try
+                {
+                    checkpointer.close();
+                }
+                catch (IOException e)
+                {
+                    throw new UncheckedIOException(e);
+                }
+            }));
+        }
+        
         gameRenderer.display();
     }
 }
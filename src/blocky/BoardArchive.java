@@ -0,0 +1,301 @@
+package blocky;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+// A file holding many boards in the BoardCodec format, read and written
+// through memory-mapped windows of the file.  Any board can be reached by
+// its index without reading the others, and is only turned into a Block
+// tree when it is opened.
+//
+// Layout, all numbers big-endian:
+//    header   MAGIC, VERSION, the max depth of the boards, the board count
+//             and the offset of the index, HEADER_SIZE bytes in all
+//    data     the encoded boards, one after another.  A board never
+//             crosses a multiple of WINDOW_SIZE, so it can always be read
+//             from a single mapped window.
+//    index    one long per board: its offset << LENGTH_BITS | its length
+public class BoardArchive implements Closeable
+{
+    final static int MAGIC = 0x424C4B59; // "BLKY"
+    final static int VERSION = 1;
+    final static int HEADER_SIZE = 32;
+    
+    // Size of the read windows.  Writers map smaller chunks that divide it.
+    final static long WINDOW_SIZE = 1L << 30;
+    final static long WRITE_CHUNK_SIZE = 1L << 26;
+    
+    // The low bits of an index entry hold the length, the rest the offset.
+    final static int LENGTH_BITS = 24;
+    final static long LENGTH_MASK = (1L << LENGTH_BITS) - 1;
+    
+    private final FileChannel channel;
+    private final int maxDepth;
+    private final long boardCount;
+    private final long indexOffset;
+    
+    //windows:
+    //    The read-only mapping of each window of the file, mapped on first use.
+    private final MappedByteBuffer[] windows;
+    
+    private BoardArchive(FileChannel inChannel) throws IOException
+    {
+        channel = inChannel;
+        
+        if (channel.size() < HEADER_SIZE)
+        {
+            throw new IOException("Not a board archive");
+        }
+        
+        ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+        
+        if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION)
+        {
+            throw new IOException("Not a board archive");
+        }
+        
+        maxDepth = header.getInt(8);
+        boardCount = header.getLong(16);
+        indexOffset = header.getLong(24);
+        windows = new MappedByteBuffer[(int) ((indexOffset + 8 * boardCount) / WINDOW_SIZE) + 1];
+    }
+    
+    public static BoardArchive open(Path path) throws IOException
+    {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        
+        try
+        {
+            return new BoardArchive(channel);
+        }
+        catch (IOException e)
+        {
+            channel.close();
+            throw e;
+        }
+    }
+    
+    // Method that starts a new archive of boards of the default depth.
+    public static Writer create(Path path) throws IOException
+    {
+        return create(path, Block.DEFAULT_MAX_DEPTH);
+    }
+    
+    public static Writer create(Path path, int maxDepth) throws IOException
+    {
+        return new Writer(path, maxDepth);
+    }
+    
+    public long size()
+    {
+        return boardCount;
+    }
+    
+    public int getMaxDepth()
+    {
+        return maxDepth;
+    }
+    
+    // Method that returns the encoded board at index as a read-only view of
+    // the mapped file.  Nothing is copied.
+    public ByteBuffer getEncoded(long index) throws IOException
+    {
+        long entry = getIndexEntry(index);
+        long offset = entry >>> LENGTH_BITS;
+        int length = (int) (entry & LENGTH_MASK);
+        int start = (int) (offset % WINDOW_SIZE);
+        
+        ByteBuffer view = window(offset / WINDOW_SIZE).duplicate();
+        view.position(start).limit(start + length);
+        return view.slice();
+    }
+    
+    // Method that decodes the board at index into a new Block tree of the
+    // default pixel size.
+    public Block openBoard(long index) throws IOException
+    {
+        return openBoard(index, Block.DEFAULT_SIZE);
+    }
+    
+    public Block openBoard(long index, int size) throws IOException
+    {
+        return BoardCodec.decode(getEncoded(index), 0, maxDepth, size);
+    }
+    
+    private long getIndexEntry(long index) throws IOException
+    {
+        if (index < 0 || index >= boardCount)
+        {
+            throw new IndexOutOfBoundsException("Board " + index + " of " + boardCount);
+        }
+        
+        // WINDOW_SIZE is a multiple of 8 and the index is aligned, so an
+        // entry never crosses a window.
+        long position = indexOffset + 8 * index;
+        return window(position / WINDOW_SIZE).getLong((int) (position % WINDOW_SIZE));
+    }
+    
+    private synchronized MappedByteBuffer window(long number) throws IOException
+    {
+        int i = (int) number;
+        
+        if (windows[i] == null)
+        {
+            long start = number * WINDOW_SIZE;
+            long length = Math.min(WINDOW_SIZE, channel.size() - start);
+            windows[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, length);
+        }
+        
+        return windows[i];
+    }
+    
+    // The mappings stay valid until they are garbage collected.
+    @Override
+    public void close() throws IOException
+    {
+        channel.close();
+    }
+    
+    // Appends boards to a new archive file.  The index is kept in memory
+    // until close, which writes it and then the header.
+    public static class Writer implements Closeable
+    {
+        private final FileChannel channel;
+        private final int maxDepth;
+        private MappedByteBuffer chunk;
+        private long chunkStart;
+        private long position = HEADER_SIZE;
+        private long[] index = new long[1024];
+        private long boardCount;
+        
+        private Writer(Path path, int inMaxDepth) throws IOException
+        {
+            maxDepth = inMaxDepth;
+            channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE);
+        }
+        
+        // Method that encodes root into the archive and returns its index.
+        // root must be as deep as the archive's boards.
+        public long add(Block root) throws IOException
+        {
+            if (root.getMaxDepth() != maxDepth)
+            {
+                throw new IllegalArgumentException("Board depth " + root.getMaxDepth() + " in an archive of depth " + maxDepth);
+            }
+            
+            return addEncoded(BoardCodec.encode(root));
+        }
+        
+        // Method that stores an already encoded board and returns its index.
+        public long addEncoded(byte[] encoded) throws IOException
+        {
+            if (encoded.length > LENGTH_MASK)
+            {
+                throw new IllegalArgumentException("Encoded board is too large: " + encoded.length + " bytes");
+            }
+            
+            // Start a new chunk rather than let the board cross into one.  A
+            // plain root encodes as no bytes and crosses nothing.
+            if (encoded.length > 0
+                    && position / WRITE_CHUNK_SIZE != (position + encoded.length - 1) / WRITE_CHUNK_SIZE)
+            {
+                position = (position / WRITE_CHUNK_SIZE + 1) * WRITE_CHUNK_SIZE;
+            }
+            
+            ByteBuffer buffer = chunkAt(position);
+            buffer.position((int) (position - chunkStart));
+            buffer.put(encoded);
+            
+            if (boardCount == index.length)
+            {
+                index = Arrays.copyOf(index, index.length * 2);
+            }
+            
+            index[(int) boardCount] = position << LENGTH_BITS | encoded.length;
+            position += encoded.length;
+            return boardCount++;
+        }
+        
+        public long size()
+        {
+            return boardCount;
+        }
+        
+        @Override
+        public void close() throws IOException
+        {
+            try
+            {
+                long indexOffset = (position + 7) & ~7L;
+                position = indexOffset;
+                
+                for(long i = 0; i < boardCount; i++)
+                {
+                    chunkAt(position).putLong((int) (position - chunkStart), index[(int) i]);
+                    position += 8;
+                }
+                
+                MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+                header.putInt(0, MAGIC);
+                header.putInt(4, VERSION);
+                header.putInt(8, maxDepth);
+                header.putLong(16, boardCount);
+                header.putLong(24, indexOffset);
+                
+                if (chunk != null)
+                {
+                    chunk.force();
+                }
+                
+                header.force();
+                trim();
+            }
+            finally
+            {
+                channel.close();
+            }
+        }
+        
+        // Method that returns the chunk holding position, mapping the next
+        // one when position has moved past the current one.
+        private MappedByteBuffer chunkAt(long at) throws IOException
+        {
+            long start = at / WRITE_CHUNK_SIZE * WRITE_CHUNK_SIZE;
+            
+            if (chunk == null || start != chunkStart)
+            {
+                if (chunk != null)
+                {
+                    chunk.force();
+                }
+                
+                chunk = channel.map(FileChannel.MapMode.READ_WRITE, start, WRITE_CHUNK_SIZE);
+                chunkStart = start;
+            }
+            
+            return chunk;
+        }
+        
+        // Mapping a chunk grows the file to the end of the chunk.  Cut it
+        // back to the real end; some platforms refuse to truncate a file
+        // that is still mapped, and then the unused tail is left in place,
+        // which readers never look at.
+        private void trim()
+        {
+            try
+            {
+                channel.truncate(position);
+            }
+            catch (IOException e)
+            {
+                // Keep the padded file.
+            }
+        }
+    }
+}
@@ -0,0 +1,243 @@
+package blocky;
+import java.awt.Color;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// A compact binary form of a board.  The tree is written in preorder, one
+// bit per block (1 = subdivided, 0 = leaf) followed, for a leaf, by two bits
+// holding its index into Block.COLORS.  Bits fill each byte from the high
+// bit down.  The format is self-delimiting: a reader knows it is done when
+// every subdivided block has had its four children read.  Subdivided blocks
+// are decoded without a color, the way Game.createRandomChildren leaves
+// them.
+//
+// The one leaf that may have no color from Block.COLORS is the plain white
+// root of an empty board; it encodes as no bytes at all.
+//
+// The encoding doesn't hold the board's max depth or pixel size; whoever
+// stores boards keeps those alongside, like BoardArchive's header.
+public final class BoardCodec
+{
+    private BoardCodec()
+    {
+    }
+    
+    // Method that encodes the tree under root.  Every leaf but a plain root
+    // must have one of the Block.COLORS.
+    public static byte[] encode(Block root)
+    {
+        root.resolveOrientation();
+        
+        if (isPlainRoot(root))
+        {
+            return new byte[0];
+        }
+        
+        BitWriter writer = new BitWriter();
+        writeBlock(writer, root);
+        return writer.toByteArray();
+    }
+    
+    // Method that returns the number of bytes encode would produce.
+    public static int encodedLength(Block root)
+    {
+        root.resolveOrientation();
+        return isPlainRoot(root) ? 0 : (int) ((countBits(root) + 7) / 8);
+    }
+    
+    // Method that decodes a board of the default depth and size.
+    public static Block decode(byte[] bytes)
+    {
+        return decode(bytes, Block.DEFAULT_MAX_DEPTH, Block.DEFAULT_SIZE);
+    }
+    
+    public static Block decode(byte[] bytes, int maxDepth, int size)
+    {
+        return decode(ByteBuffer.wrap(bytes), 0, maxDepth, size);
+    }
+    
+    // Method that builds a new tree, maxDepth levels deep and size pixels
+    // across, from the encoding starting at offset in buffer.  The buffer is
+    // read with absolute gets, so its position is left alone and a shared or
+    // mapped buffer can be decoded in place.  An encoding with no bytes before
+    // the buffer's limit is a plain white root.
+    public static Block decode(ByteBuffer buffer, int offset, int maxDepth, int size)
+    {
+        Block root = new Block(maxDepth, size);
+        
+        if (offset < buffer.limit())
+        {
+            readBlock(new BitReader(buffer, offset), root);
+        }
+        
+        return root;
+    }
+    
+    // Method that replaces the subtree under block with the encoded one,
+    // which is built at block's level and size.  block keeps its identity
+    // and place on the board; listeners are not told.
+    public static void decodeInto(byte[] bytes, Block block)
+    {
+        block.setChildren(new ArrayList<>());
+        
+        if (bytes.length == 0)
+        {
+            block.setColor(Color.WHITE);
+        }
+        else
+        {
+            readBlock(new BitReader(ByteBuffer.wrap(bytes), 0), block);
+        }
+    }
+    
+    // Method that tells whether block is a root that was never subdivided
+    // and has no color from Block.COLORS, like a new Block(maxDepth, size).
+    private static boolean isPlainRoot(Block block)
+    {
+        return block.getParent() == null && block.getResolvedChildren().isEmpty()
+                && Block.colorIndex(block.getColor()) < 0;
+    }
+    
+    private static void writeBlock(BitWriter writer, Block block)
+    {
+        List<Block> children = block.getResolvedChildren();
+        
+        if (children.isEmpty())
+        {
+            int colorIndex = Block.colorIndex(block.getColor());
+            
+            if (colorIndex < 0)
+            {
+                throw new IllegalArgumentException("Leaf color must be one of Block.COLORS");
+            }
+            
+            // The leaf bit (0) and the two color bits in one go.
+            writer.write(colorIndex, 3);
+        }
+        else
+        {
+            writer.write(1, 1);
+            
+            for(Block child : children)
+            {
+                writeBlock(writer, child);
+            }
+        }
+    }
+    
+    private static long countBits(Block block)
+    {
+        List<Block> children = block.getResolvedChildren();
+        
+        if (children.isEmpty())
+        {
+            return 3;
+        }
+        
+        long bits = 1;
+        
+        for(Block child : children)
+        {
+            bits += countBits(child);
+        }
+        
+        return bits;
+    }
+    
+    private static void readBlock(BitReader reader, Block block)
+    {
+        if (reader.read(1) == 1)
+        {
+            if (block.getLevel() >= block.getMaxDepth())
+            {
+                throw new IllegalArgumentException("Board is deeper than " + block.getMaxDepth() + " levels");
+            }
+            
+            int childrenLevel = block.getLevel() + 1;
+            int childrenSize = block.getSize() / 2;
+            List<Block> children = new ArrayList<>(4);
+            
+            // Subdivided blocks have no color of their own; leaves get
+            // theirs as they are read.
+            for(int i = 0; i < 4; i++)
+            {
+                children.add(new Block(null, childrenLevel, childrenSize, block));
+            }
+            
+            block.setChildren(children);
+            block.setColor(null);
+
+            for(Block child : children)
+            {
+                readBlock(reader, child);
+            }
+        }
+        else
+        {
+            block.setColor(Block.COLORS[reader.read(2)]);
+        }
+    }
+    
+    // Writes bits into a growing byte array, high bit first.
+    private static class BitWriter
+    {
+        private byte[] bytes = new byte[64];
+        private long bitCount;
+        
+        // Method that appends the low count bits of value, high bit first.
+        void write(int value, int count)
+        {
+            for(int i = count - 1; i >= 0; i--)
+            {
+                int index = (int) (bitCount >>> 3);
+                
+                if (index == bytes.length)
+                {
+                    bytes = Arrays.copyOf(bytes, bytes.length * 2);
+                }
+                
+                if (((value >>> i) & 1) != 0)
+                {
+                    bytes[index] |= 0x80 >>> (bitCount & 7);
+                }
+                
+                bitCount++;
+            }
+        }
+        
+        byte[] toByteArray()
+        {
+            return Arrays.copyOf(bytes, (int) ((bitCount + 7) >>> 3));
+        }
+    }
+    
+    // Reads bits from a buffer, high bit first, without moving its position.
+    private static class BitReader
+    {
+        private final ByteBuffer buffer;
+        private final int offset;
+        private long bitCount;
+        
+        BitReader(ByteBuffer inBuffer, int inOffset)
+        {
+            buffer = inBuffer;
+            offset = inOffset;
+        }
+        
+        int read(int count)
+        {
+            int value = 0;
+            
+            for(int i = 0; i < count; i++)
+            {
+                int current = buffer.get(offset + (int) (bitCount >>> 3));
+                value = (value << 1) | ((current >>> (7 - (bitCount & 7))) & 1);
+                bitCount++;
+            }
+            
+            return value;
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package blocky;
+import java.util.Arrays;
+
+// The board flattened into a square grid of unit cells, one per block at
+// the deepest level, each holding an index into Block.COLORS.  The grid
+// listens to its tree and rewrites only the cells under a block that was
+// swapped, rotated or smashed, so reading it never walks the tree.
+public class BoardGrid implements BlockListener
+{
+    private final Block root;
+    
+    //depth:
+    //    The level whose blocks are one cell wide.
+    private final int depth;
+    
+    //side:
+    //    The width and height of the grid in cells, 2^depth.
+    private final int side;
+    
+    //cells:
+    //    The color index of every cell, stored row by row.
+    private final byte[] cells;
+    
+    //rowVersions:
+    //    For each row, the value of version when its cells were last
+    //    rewritten.  Scorers remember these to rescan only changed rows.
+    private final long[] rowVersions;
+    private long version;
+    
+    //blobCounters:
+    //    Per-color blob state for BlobGoal, created when first needed.
+    private final BlobCounter[] blobCounters = new BlobCounter[Block.COLORS.length];
+    
+    //bitboards:
+    //    The cells again as one bitboard per color, created when first
+    //    needed and then rewritten along with them.
+    private ColorBitboards bitboards;
+
+    public BoardGrid(Block inRoot, int inDepth)
+    {
+        root = inRoot;
+        depth = inDepth;
+        side = 1 << depth;
+        cells = new byte[side * side];
+        rowVersions = new long[side];
+        
+        root.resolveOrientation();
+        root.fillCells(cells, side, 0, 0, depth);
+        root.addBlockListener(this);
+    }
+    
+    // Method that stops following the tree.
+    public void detach()
+    {
+        root.removeBlockListener(this);
+    }
+    
+    @Override
+    public void blockChanged(Block block)
+    {
+        int row = 0;
+        int column = 0;
+        Block current = block;
+        
+        // Work out where the block sits by walking up to the root.
+        while (current.getParent() != null)
+        {
+            int quadrant = current.getQuadrant();
+            
+            if (quadrant < 0)
+            {
+                // Smashed off the board; its cells were already rewritten.
+                return;
+            }
+            
+            int span = 1 << (depth - current.getLevel());
+            column += (quadrant & 1) * span;
+            row += (quadrant >> 1) * span;
+            current = current.getParent();
+        }
+        
+        if (current == root)
+        {
+            int span = 1 << (depth - block.getLevel());
+            block.fillCells(cells, side, row, column, depth);
+            version++;
+            Arrays.fill(rowVersions, row, row + span, version);
+            
+            if (bitboards != null)
+            {
+                bitboards.update(cells, row, column, span);
+            }
+        }
+    }
+    
+    public int getColorIndex(int row, int column)
+    {
+        return cells[row * side + column];
+    }
+    
+    // Method that returns the live cell array.  Callers must not modify it.
+    public byte[] getCells()
+    {
+        return cells;
+    }
+    
+    // Method that returns the live row versions.  Callers must not modify them.
+    public long[] getRowVersions()
+    {
+        return rowVersions;
+    }
+    
+    // Method that returns the live bitboards, building them on first use.
+    public ColorBitboards getBitboards()
+    {
+        if (bitboards == null)
+        {
+            bitboards = new ColorBitboards(cells, side);
+        }
+        
+        return bitboards;
+    }
+    
+    BlobCounter getBlobCounter(int colorIndex)
+    {
+        if (blobCounters[colorIndex] == null)
+        {
+            blobCounters[colorIndex] = new BlobCounter(colorIndex, side);
+        }
+        
+        return blobCounters[colorIndex];
+    }
+    
+    public int getSide()
+    {
+        return side;
+    }
+    
+    public int getDepth()
+    {
+        return depth;
+    }
+}
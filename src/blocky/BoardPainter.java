@@ -0,0 +1,384 @@
+package blocky;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.Arrays;
+import java.util.List;
+
+// Draws a Block tree into an image.  Kept apart from GameRenderer so boards
+// can be painted without opening a window.
+//
+// There are two ways to paint.  paintBlocks writes pixels straight into the
+// image's int[] raster; paintBlocksWithGraphics goes through one Graphics2D
+// per pass and is used when the image isn't backed by an int[] raster.  Both
+// only fill leaves: a subdivided block is completely covered by its children,
+// whose borders also draw over its own.
+//
+// Painting also lays the board out.  Each block's position and size are
+// worked out from its parent's as it is drawn, halving the size at every
+// level, and saved on the block; painting at some other size, e.g. zoomed
+// in through a Viewport, leaves the saved layout alone.
+//
+// Children smaller than MIN_DRAWN_SIZE aren't drawn at all; their parent
+// is drawn whole in their place, in the average color of everything under
+// it, so a board can be deeper than its pixels.  Blocks that fall outside
+// the image aren't visited either, so the cost of a paint follows the area
+// drawn rather than the size of the tree, however far the board is zoomed
+// in (see Viewport).
+public class BoardPainter
+{
+    // Every block has a border two pixels wide on each side, so anything
+    // smaller than this would be all border.
+    final static int MIN_DRAWN_SIZE = 4;
+    
+    private final BufferedImage image;
+    
+    //pixels:
+    //    The raster of image as packed RGB ints, or null if it uses some
+    //    other layout.
+    private final int[] pixels;
+    private final int width;
+    private final int height;
+    
+    //visited:
+    //    Blocks visited by the current paint, added to Metrics when it ends.
+    private int visited;
+    
+    //layingOut:
+    //    True if the current paint saves where it draws each block.
+    private boolean layingOut;
+
+    public BoardPainter(BufferedImage inImage)
+    {
+        image = inImage;
+        width = image.getWidth();
+        height = image.getHeight();
+        
+        if (image.getRaster().getDataBuffer() instanceof DataBufferInt)
+        {
+            pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+        }
+        else
+        {
+            pixels = null;
+        }
+    }
+    
+    public BufferedImage getImage()
+    {
+        return image;
+    }
+    
+    // Method that returns the deepest level whose blocks are still drawn on
+    // a board size pixels across, i.e. are at least MIN_DRAWN_SIZE across.
+    public static int deepestDrawnLevel(int size)
+    {
+        return 31 - Integer.numberOfLeadingZeros(Math.max(size / MIN_DRAWN_SIZE, 1));
+    }
+
+    // Method that paints a block and everything below it, starting at the
+    // given position, at the size it was last laid out with.  Every visited
+    // block remembers where it was drawn, so a later change can repaint just
+    // that block's rectangle.
+    public void paintBlocks(Block block, int xCoordinate, int yCoordinate)
+    {
+        layingOut = true;
+        paint(block, xCoordinate, yCoordinate, block.getSize());
+    }
+    
+    // Method that paints a block size pixels across at the given position,
+    // which may be partly or wholly outside the image, without touching its
+    // layout.
+    public void paintBlocks(Block block, int xCoordinate, int yCoordinate, int size)
+    {
+        layingOut = false;
+        paint(block, xCoordinate, yCoordinate, size);
+    }
+    
+    private void paint(Block block, int xCoordinate, int yCoordinate, int size)
+    {
+        // Rotations are applied lazily; settle everything above the first
+        // block here so the traversal below only has to look at itself.
+        block.resolveOrientation();
+        
+        if (pixels == null)
+        {
+            draw(block, xCoordinate, yCoordinate, size);
+        }
+        else
+        {
+            long start = Metrics.ENABLED ? System.nanoTime() : 0;
+            visited = 0;
+            writeBlocks(block, xCoordinate, yCoordinate, size);
+            
+            if (Metrics.ENABLED)
+            {
+                Metrics.PAINT_BLOCKS.recordSince(start);
+                Metrics.BLOCKS_VISITED.add(visited);
+            }
+        }
+    }
+    
+    // Method that paints like paintBlocks, but through a single Graphics2D.
+    public void paintBlocksWithGraphics(Block block, int xCoordinate, int yCoordinate)
+    {
+        layingOut = true;
+        draw(block, xCoordinate, yCoordinate, block.getSize());
+    }
+    
+    public void paintBlocksWithGraphics(Block block, int xCoordinate, int yCoordinate, int size)
+    {
+        layingOut = false;
+        draw(block, xCoordinate, yCoordinate, size);
+    }
+    
+    private void draw(Block block, int xCoordinate, int yCoordinate, int size)
+    {
+        long start = Metrics.ENABLED ? System.nanoTime() : 0;
+        visited = 0;
+        block.resolveOrientation();
+        Graphics2D graphics = image.createGraphics();
+        
+        try
+        {
+            drawBlocks(graphics, block, xCoordinate, yCoordinate, size);
+        }
+        finally
+        {
+            graphics.dispose();
+        }
+        
+        if (Metrics.ENABLED)
+        {
+            Metrics.PAINT_BLOCKS.recordSince(start);
+            Metrics.BLOCKS_VISITED.add(visited);
+        }
+    }
+    
+    public void paintHighlightedBlock(Block highlightedBlock)
+    {
+        if (highlightedBlock != null)
+        {
+            paintHighlight(highlightedBlock.getXCoordinate(), highlightedBlock.getYCoordinate(), highlightedBlock.getSize());
+        }
+    }
+    
+    // Method that draws the highlight border around a block laid out size
+    // pixels across at (x, y).
+    public void paintHighlight(int x, int y, int size)
+    {
+        if (pixels == null)
+        {
+            Graphics2D graphics = image.createGraphics();
+            graphics.setColor(Block.HIGHLIGHT_COLOR);
+            graphics.drawRect(x, y, size, size);
+            graphics.drawRect(x + 1, y + 1, size - 2, size - 2);
+            graphics.dispose();
+        }
+        else
+        {
+            writeBorder(x, y, size, Block.HIGHLIGHT_COLOR.getRGB());
+        }
+    }
+    
+    // Method that copies area of source's image into the same place in this
+    // painter's image.  Both images must be the same size.
+    public void copyFrom(BoardPainter source, Rectangle area)
+    {
+        int left = Math.max(area.x, 0);
+        int top = Math.max(area.y, 0);
+        int right = Math.min(area.x + area.width, width);
+        int bottom = Math.min(area.y + area.height, height);
+        
+        if (left >= right || top >= bottom)
+        {
+            return;
+        }
+        
+        if (pixels == null || source.pixels == null)
+        {
+            Graphics2D graphics = image.createGraphics();
+            graphics.drawImage(source.image, left, top, right, bottom, left, top, right, bottom, null);
+            graphics.dispose();
+        }
+        else
+        {
+            for (int row = top; row < bottom; row++)
+            {
+                System.arraycopy(source.pixels, row * width + left, pixels, row * width + left, right - left);
+            }
+        }
+    }
+    
+    // Method that returns the size block's children are drawn at, or 0 if
+    // they aren't drawn: it has none, or they'd be too small to draw.
+    private static int childSizeOf(List<Block> children, int size)
+    {
+        return children.isEmpty() || size / 2 < MIN_DRAWN_SIZE ? 0 : size / 2;
+    }
+    
+    // Method that checks whether a block needs its own fill and border, i.e.
+    // its children aren't drawn or don't tile it exactly (odd sizes).
+    private static boolean isVisible(int size, int childSize)
+    {
+        return childSize == 0 || childSize * 2 != size;
+    }
+    
+    // Method that checks whether any of a block, border included, lands on
+    // the image.
+    private boolean isOnImage(int xCoordinate, int yCoordinate, int size)
+    {
+        return xCoordinate < width && yCoordinate < height && xCoordinate + size >= 0 && yCoordinate + size >= 0;
+    }
+    
+    private void drawBlocks(Graphics2D graphics, Block block, int xCoordinate, int yCoordinate, int size)
+    {
+        if (!isOnImage(xCoordinate, yCoordinate, size))
+        {
+            return;
+        }
+        
+        visited++;
+        
+        if (layingOut)
+        {
+            block.setXCoordinate(xCoordinate);
+            block.setYCoordinate(yCoordinate);
+            block.setSize(size);
+        }
+        
+        List<Block> children = block.getResolvedChildren();
+        int childSize = childSizeOf(children, size);
+        
+        if (isVisible(size, childSize))
+        {
+            // Paint the solid rectangle the appropriate color.
+            graphics.setColor(new Color(rgbOf(block, childSize)));
+            graphics.fillRect(xCoordinate, yCoordinate, size, size);
+            
+            // Set the border color.
+            if (!block.isHighlighted())
+            {
+                graphics.setColor(Color.BLACK);
+                graphics.drawRect(xCoordinate, yCoordinate, size, size);
+                graphics.drawRect(xCoordinate + 1, yCoordinate + 1, size - 2, size - 2);
+            }
+        }
+        
+        if (childSize > 0)
+        {
+            drawBlocks(graphics, children.get(0), xCoordinate, yCoordinate, childSize);
+            drawBlocks(graphics, children.get(1), xCoordinate + childSize, yCoordinate, childSize);
+            drawBlocks(graphics, children.get(2), xCoordinate, yCoordinate + childSize, childSize);
+            drawBlocks(graphics, children.get(3), xCoordinate + childSize, yCoordinate + childSize, childSize);
+        }
+    }
+    
+    private void writeBlocks(Block block, int xCoordinate, int yCoordinate, int size)
+    {
+        if (!isOnImage(xCoordinate, yCoordinate, size))
+        {
+            return;
+        }
+        
+        visited++;
+        
+        if (layingOut)
+        {
+            block.setXCoordinate(xCoordinate);
+            block.setYCoordinate(yCoordinate);
+            block.setSize(size);
+        }
+        
+        List<Block> children = block.getResolvedChildren();
+        int childSize = childSizeOf(children, size);
+        
+        if (isVisible(size, childSize))
+        {
+            writeFill(xCoordinate, yCoordinate, size, rgbOf(block, childSize));
+            
+            if (!block.isHighlighted())
+            {
+                writeBorder(xCoordinate, yCoordinate, size, Color.BLACK.getRGB());
+            }
+        }
+        
+        if (childSize > 0)
+        {
+            writeBlocks(children.get(0), xCoordinate, yCoordinate, childSize);
+            writeBlocks(children.get(1), xCoordinate + childSize, yCoordinate, childSize);
+            writeBlocks(children.get(2), xCoordinate, yCoordinate + childSize, childSize);
+            writeBlocks(children.get(3), xCoordinate + childSize, yCoordinate + childSize, childSize);
+        }
+    }
+    
+    // Method that returns the color a block is filled with.  A subdivided
+    // block has no color of its own: when its children are too small to draw
+    // it stands in for them with their average color, and when they are
+    // drawn it is only seen, in white, in the odd pixel they leave.
+    private static int rgbOf(Block block, int childSize)
+    {
+        if (childSize == 0 && !block.getResolvedChildren().isEmpty())
+        {
+            return block.getAverageRgb();
+        }
+        
+        return block.getColor() == null ? Color.WHITE.getRGB() : block.getColor().getRGB();
+    }
+    
+    private void writeFill(int x, int y, int size, int rgb)
+    {
+        int left = Math.max(x, 0);
+        int right = Math.min(x + size, width);
+        int bottom = Math.min(y + size, height);
+        
+        for (int row = Math.max(y, 0); row < bottom; row++)
+        {
+            Arrays.fill(pixels, row * width + left, row * width + right, rgb);
+        }
+    }
+    
+    // Method that writes the same pixels as drawRect(x, y, size, size)
+    // followed by drawRect(x + 1, y + 1, size - 2, size - 2).
+    private void writeBorder(int x, int y, int size, int rgb)
+    {
+        writeHorizontalLine(x, x + size, y, rgb);
+        writeHorizontalLine(x, x + size, y + size, rgb);
+        writeVerticalLine(x, y, y + size, rgb);
+        writeVerticalLine(x + size, y, y + size, rgb);
+        
+        if (size >= 2)
+        {
+            writeHorizontalLine(x + 1, x + size - 1, y + 1, rgb);
+            writeHorizontalLine(x + 1, x + size - 1, y + size - 1, rgb);
+            writeVerticalLine(x + 1, y + 1, y + size - 1, rgb);
+            writeVerticalLine(x + size - 1, y + 1, y + size - 1, rgb);
+        }
+    }
+    
+    // Both ends are inclusive, like the lines drawRect draws.
+    private void writeHorizontalLine(int fromX, int toX, int y, int rgb)
+    {
+        if (y >= 0 && y < height)
+        {
+            int offset = y * width;
+            Arrays.fill(pixels, offset + Math.max(fromX, 0), offset + Math.min(toX, width - 1) + 1, rgb);
+        }
+    }
+    
+    private void writeVerticalLine(int x, int fromY, int toY, int rgb)
+    {
+        if (x >= 0 && x < width)
+        {
+            int last = Math.min(toY, height - 1);
+            
+            for (int row = Math.max(fromY, 0); row <= last; row++)
+            {
+                pixels[row * width + x] = rgb;
+            }
+        }
+    }
+}
@@ -0,0 +1,251 @@
+package blocky;
+
+// The flattened board as one bitboard per color in Block.COLORS: bit
+// row * side + column of a color's board is set when that cell has the
+// color.  Bits are packed 64 to a long, low bit first, so a row of 64 cells
+// or more starts on a word boundary and a smaller board packs 64 / side rows
+// into each word.  Counting, edge and adjacency questions then take a
+// popcount per word instead of a comparison per cell.
+//
+// BoardGrid keeps one up to date alongside its cells once a scorer has
+// asked for it.
+public class ColorBitboards
+{
+    private final int side;
+    
+    //bits:
+    //    One board per color, each (side * side + 63) / 64 words long.
+    private final long[][] bits;
+    
+    //firstColumn, lastColumn:
+    //    On boards narrower than a word, the bits of the first and last
+    //    column within every word; the pattern is the same in each one.
+    private final long firstColumn;
+    private final long lastColumn;
+    
+    //scratch:
+    //    One word per color, used while repacking cells.
+    private final long[] scratch = new long[Block.COLORS.length];
+    
+    public ColorBitboards(byte[] cells, int inSide)
+    {
+        side = inSide;
+        bits = new long[Block.COLORS.length][(side * side + 63) / 64];
+        
+        long first = 0;
+        
+        for (int bit = 0; bit < 64 && side < 64; bit += side)
+        {
+            first |= 1L << bit;
+        }
+        
+        firstColumn = first;
+        lastColumn = first << (side - 1);
+        update(cells, 0, 0, side);
+    }
+    
+    // Method that repacks the span by span square of cells whose upper-left
+    // cell is (row, column), after BoardGrid has rewritten it.
+    public void update(byte[] cells, int row, int column, int span)
+    {
+        for (int r = row; r < row + span; r++)
+        {
+            int from = r * side + column;
+            int to = from + span;
+            
+            while (from < to)
+            {
+                int word = from >>> 6;
+                int limit = Math.min(to, (word + 1) << 6);
+                long mask = 0;
+                
+                // Shifts only use the low six bits of the index.  A cell of
+                // -1, the white root of a board that was never subdivided,
+                // is in no color's board.
+                for (int i = from; i < limit; i++)
+                {
+                    long bit = 1L << i;
+                    mask |= bit;
+                    
+                    if (cells[i] >= 0)
+                    {
+                        scratch[cells[i]] |= bit;
+                    }
+                }
+                
+                for (int color = 0; color < bits.length; color++)
+                {
+                    bits[color][word] = (bits[color][word] & ~mask) | scratch[color];
+                    scratch[color] = 0;
+                }
+                
+                from = limit;
+            }
+        }
+    }
+    
+    // Method that returns the number of cells of a color.
+    public int count(int colorIndex)
+    {
+        int count = 0;
+        
+        for (long word : bits[colorIndex])
+        {
+            count += Long.bitCount(word);
+        }
+        
+        return count;
+    }
+    
+    // Method that returns the number of cells of a color on the outside
+    // edge of the board, counting corner cells twice, as PerimeterGoal does.
+    public int edgeCount(int colorIndex)
+    {
+        long[] board = bits[colorIndex];
+        int cells = side * side;
+        int count = countRange(board, 0, side) + countRange(board, cells - side, cells);
+        
+        if (side < 64)
+        {
+            for (long word : board)
+            {
+                count += Long.bitCount(word & firstColumn) + Long.bitCount(word & lastColumn);
+            }
+        }
+        else
+        {
+            int wordsPerRow = side / 64;
+            
+            for (int word = 0; word < board.length; word += wordsPerRow)
+            {
+                count += (int) (board[word] & 1) + (int) (board[word + wordsPerRow - 1] >>> 63);
+            }
+        }
+        
+        return count;
+    }
+    
+    // Method that returns the number of pairs of side-by-side cells, across
+    // or down, that both have a color.
+    public int adjacentPairs(int colorIndex)
+    {
+        long[] board = bits[colorIndex];
+        int pairs = 0;
+        
+        for (int word = 0; word < board.length; word++)
+        {
+            long next = word + 1 < board.length ? board[word + 1] : 0;
+            
+            // Each cell against the one to its right, except in the last
+            // column, which has nothing to its right on the same row.
+            long right = (board[word] >>> 1) | (next << 63);
+            pairs += Long.bitCount(board[word] & right & ~lastColumnOf(word));
+            
+            // Each cell against the one below it.  Bits past the last row are
+            // always clear.
+            if (side < 64)
+            {
+                long below = (board[word] >>> side) | (next << (64 - side));
+                pairs += Long.bitCount(board[word] & below);
+            }
+            else if (word + side / 64 < board.length)
+            {
+                pairs += Long.bitCount(board[word] & board[word + side / 64]);
+            }
+        }
+        
+        return pairs;
+    }
+    
+    // Method that returns the number of cell edges between a color and
+    // anything else, the board's outside edge included.
+    public int boundaryLength(int colorIndex)
+    {
+        return 4 * count(colorIndex) - 2 * adjacentPairs(colorIndex);
+    }
+    
+    private long lastColumnOf(int word)
+    {
+        if (side < 64)
+        {
+            return lastColumn;
+        }
+        
+        return (word + 1) % (side / 64) == 0 ? Long.MIN_VALUE : 0;
+    }
+    
+    // Method that counts the set bits in [from, to).
+    private static int countRange(long[] board, int from, int to)
+    {
+        int count = 0;
+        
+        while (from < to)
+        {
+            int word = from >>> 6;
+            int limit = Math.min(to, (word + 1) << 6);
+            long mask = (-1L >>> (64 - (limit - from))) << from;
+            count += Long.bitCount(board[word] & mask);
+            from = limit;
+        }
+        
+        return count;
+    }
+    
+    // Method that returns the first cell of a color at or after bit from,
+    // or limit if there is none before it.
+    int nextSetBit(int colorIndex, int from, int limit)
+    {
+        long[] board = bits[colorIndex];
+        int word = from >>> 6;
+        long current = board[word] & (-1L << from);
+        
+        while (current == 0)
+        {
+            word++;
+            
+            if (word << 6 >= limit)
+            {
+                return limit;
+            }
+            
+            current = board[word];
+        }
+        
+        return Math.min((word << 6) + Long.numberOfTrailingZeros(current), limit);
+    }
+    
+    // Method that returns the first cell not of a color at or after bit
+    // from, or limit if there is none before it.
+    int nextClearBit(int colorIndex, int from, int limit)
+    {
+        long[] board = bits[colorIndex];
+        int word = from >>> 6;
+        long current = ~board[word] & (-1L << from);
+        
+        while (current == 0)
+        {
+            word++;
+            
+            if (word << 6 >= limit)
+            {
+                return limit;
+            }
+            
+            current = ~board[word];
+        }
+        
+        return Math.min((word << 6) + Long.numberOfTrailingZeros(current), limit);
+    }
+    
+    // Method that returns the live bitboard of a color.  Callers must not
+    // modify it.
+    public long[] getBits(int colorIndex)
+    {
+        return bits[colorIndex];
+    }
+    
+    public int getSide()
+    {
+        return side;
+    }
+}
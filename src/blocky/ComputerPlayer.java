@@ -0,0 +1,303 @@
+package blocky;
+import java.awt.Color;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+// A computer player that tries every legal move and plays the one that
+// scores best for its goal.  The moves are independent, so they are split
+// over a ForkJoinPool.  Every task scores moves on a copy of the board no
+// other task is using, applying each move and then undoing it, so no Block
+// is ever shared between threads while it is being changed.  Scores are
+// cached by board hash in a transposition table shared by all threads and
+// searches, so boards reached by different moves are only scored once.
+//
+// The copies, with their grids and block pools, are kept by the player from
+// one search to the next, about one per worker.  Before a search uses one it
+// is brought in step with the board with Block.copyFrom, which only replaces
+// the blocks that changed since, rather than copying the board again.
+//
+// Each smash is scored with children from a seed drawn for that move before
+// the search starts, so which worker scores it doesn't matter, and a player
+// given a seed chooses the same moves every time.
+public class ComputerPlayer extends Player
+{
+    // Number of moves a task scores itself instead of splitting further.
+    private final static int CHUNK_SIZE = 16;
+    
+    // Entries in the default transposition table.
+    private final static int TABLE_SIZE = 1 << 16;
+    
+    private final ForkJoinPool pool;
+    private final TranspositionTable table;
+    
+    //random:
+    //    Each search splits off a stream of its own from this one for the
+    //    smash seeds.  Only used by the thread calling chooseMove.
+    private final SplittableRandom random;
+    
+    //master:
+    //    This player's copy of the board, brought in step with the game's at
+    //    the start of each search on the thread calling chooseMove.  The
+    //    search boards are then brought in step with it.
+    //boards:
+    //    Search boards no task is using.  A task takes one, or makes one if
+    //    there are none, and puts it back when it is done.
+    private Block master;
+    private final ConcurrentLinkedQueue<SearchBoard> boards = new ConcurrentLinkedQueue<>();
+    
+    // Statistics from the last search.
+    private volatile int lastMovesEvaluated;
+    private volatile long lastSearchNanos;
+    
+    public ComputerPlayer(String name, Goal goal)
+    {
+        this(name, goal, ForkJoinPool.commonPool());
+    }
+    
+    // Method that makes a player whose searches can be repeated exactly.
+    public ComputerPlayer(String name, Goal goal, long seed)
+    {
+        this(name, goal, ForkJoinPool.commonPool(), new TranspositionTable(TABLE_SIZE), new SplittableRandom(seed));
+    }
+
+    public ComputerPlayer(String name, Goal goal, ForkJoinPool inPool)
+    {
+        this(name, goal, inPool, new TranspositionTable(TABLE_SIZE));
+    }
+    
+    // The table must only ever be used with this player's goal.
+    public ComputerPlayer(String name, Goal goal, ForkJoinPool inPool, TranspositionTable inTable)
+    {
+        this(name, goal, inPool, inTable, new SplittableRandom());
+    }
+    
+    public ComputerPlayer(String name, Goal goal, ForkJoinPool inPool, TranspositionTable inTable, SplittableRandom inRandom)
+    {
+        super(name, goal);
+        pool = inPool;
+        table = inTable;
+        random = inRandom;
+    }
+    
+    @Override
+    public Move chooseMove(Game game)
+    {
+        long start = System.nanoTime();
+        
+        // Bring the master in step on this thread.  It then has no pending
+        // rotations and all its hashes are worked out, so reading it never
+        // writes to it and the workers can all read it at the same time.
+        Block root = game.getRoot();
+        
+        if (master == null || !SearchBoard.fits(master, root))
+        {
+            master = root.copy();
+        }
+        else
+        {
+            master.copyFrom(root);
+        }
+        
+        master.getZobristHash();
+        List<Move> moves = Move.legalMoves(master);
+        
+        if (moves.isEmpty())
+        {
+            return null;
+        }
+        
+        SplittableRandom searchRandom = random.split();
+        long[] seeds = new long[moves.size()];
+        
+        for (int i = 0; i < seeds.length; i++)
+        {
+            seeds[i] = moves.get(i).getType() == Move.Type.SMASH ? searchRandom.nextLong() : 0;
+        }
+        
+        table.newGeneration();
+        Result best = pool.invoke(new SearchTask(game, moves, seeds, 0, moves.size()));
+        
+        lastMovesEvaluated = moves.size();
+        lastSearchNanos = System.nanoTime() - start;
+        return moves.get(best.index);
+    }
+    
+    // Method that returns a search board no other task is using, in step
+    // with the master.  Boards made for a board of another depth or size are
+    // dropped.
+    private SearchBoard takeBoard()
+    {
+        SearchBoard board;
+        
+        while ((board = boards.poll()) != null)
+        {
+            if (SearchBoard.fits(board.root, master))
+            {
+                board.root.copyFrom(master);
+                return board;
+            }
+        }
+        
+        return new SearchBoard(master.copy());
+    }
+    
+    public TranspositionTable getTranspositionTable()
+    {
+        return table;
+    }
+    
+    public int getLastMovesEvaluated()
+    {
+        return lastMovesEvaluated;
+    }
+    
+    // Method that returns how many moves per second the last search scored.
+    public double getMovesPerSecond()
+    {
+        return lastSearchNanos == 0 ? 0 : lastMovesEvaluated * 1e9 / lastSearchNanos;
+    }
+    
+    // The best move in a range of the move list.
+    private static class Result
+    {
+        final int index;
+        final int score;
+        
+        Result(int inIndex, int inScore)
+        {
+            index = inIndex;
+            score = inScore;
+        }
+        
+        // Ties go to the earlier move, so results don't depend on scheduling.
+        Result better(Result other)
+        {
+            if (other.score > score || (other.score == score && other.index < index))
+            {
+                return other;
+            }
+            
+            return this;
+        }
+    }
+    
+    // A copy of the board and its flattened grid, used by one task at a time.
+    private static class SearchBoard
+    {
+        final Block root;
+        final BoardGrid grid;
+        
+        // Takes back the children each scored smash built, for the next one.
+        final BlockPool pool;
+        
+        SearchBoard(Block inRoot)
+        {
+            root = inRoot;
+            grid = new BoardGrid(root, root.getMaxDepth());
+            pool = new BlockPool(root.getMaxDepth(), Game.POOL_CAPACITY);
+        }
+        
+        // Method that tells whether a copy of board can be brought in step
+        // with source, which needs the two to be as deep and as large.
+        static boolean fits(Block board, Block source)
+        {
+            return board.getMaxDepth() == source.getMaxDepth() && board.getSize() == source.getSize();
+        }
+        
+        // Method that scores the board after move, then puts it back.  seed
+        // is only used by a smash.
+        int evaluate(Move move, long seed, Goal goal, Game game, TranspositionTable table)
+        {
+            Block block = move.findBlock(root);
+            List<Block> oldChildren = block.getChildren();
+            Color oldColor = block.getColor();
+            
+            if (move.getType() == Move.Type.SMASH)
+            {
+                block.smash(seed, pool);
+            }
+            else
+            {
+                move.applyTo(block, game);
+            }
+            
+            long hash = root.getZobristHash();
+            int score = table.probe(hash, 0);
+            
+            if (score == TranspositionTable.NOT_FOUND)
+            {
+                score = goal.score(grid);
+                table.store(hash, score, 0);
+            }
+            
+            if (move.getType() == Move.Type.SMASH)
+            {
+                List<Block> newChildren = block.getChildren();
+                block.setChildren(oldChildren);
+                block.setColor(oldColor);
+                block.fireBlockChanged();
+                
+                // Smashing the root or a block at the deepest level changes
+                // nothing.
+                if (newChildren != oldChildren)
+                {
+                    pool.release(newChildren);
+                }
+            }
+            else
+            {
+                move.inverse().applyTo(block, game);
+            }
+            
+            return score;
+        }
+    }
+    
+    @SuppressWarnings("serial")
+    private class SearchTask extends RecursiveTask<Result>
+    {
+        private final Game game;
+        private final List<Move> moves;
+        private final long[] seeds;
+        private final int from;
+        private final int to;
+        
+        SearchTask(Game inGame, List<Move> inMoves, long[] inSeeds, int inFrom, int inTo)
+        {
+            game = inGame;
+            moves = inMoves;
+            seeds = inSeeds;
+            from = inFrom;
+            to = inTo;
+        }
+        
+        @Override
+        protected Result compute()
+        {
+            if (to - from <= CHUNK_SIZE)
+            {
+                SearchBoard board = takeBoard();
+                Result best = null;
+                
+                for (int i = from; i < to; i++)
+                {
+                    Result result = new Result(i, board.evaluate(moves.get(i), seeds[i], getGoal(), game, table));
+                    best = best == null ? result : best.better(result);
+                }
+                
+                boards.add(board);
+                return best;
+            }
+            
+            int middle = (from + to) >>> 1;
+            SearchTask left = new SearchTask(game, moves, seeds, from, middle);
+            SearchTask right = new SearchTask(game, moves, seeds, middle, to);
+            left.fork();
+            Result rightResult = right.compute();
+            return left.join().better(rightResult);
+        }
+    }
+}
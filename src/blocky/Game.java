@@ -1,7 +1,12 @@
 package blocky;
 import java.awt.Color;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
 import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
 
 public class Game
 {
@@ -14,43 +19,211 @@ public class Game
     //    The block the user has selected.  This will be colored specially when rendered.
     private Block highlightedBlock;
     
+    //grid:
+    //    The board flattened into unit cells, kept up to date as blocks are
+    //    swapped, rotated and smashed.  Created the first time it is asked for.
+    private BoardGrid grid;
+    
+    //leafIndex:
+    //    Pixel to leaf lookup for root, built on first use.
+    private LeafIndex leafIndex;
+    
+    //undoHistory, redoHistory:
+    //    The moves played on this board, most recent first, and the moves
+    //    undone since.  Only a move and, for a smash, the two sets of
+    //    children are kept, so the history grows with the number of moves
+    //    rather than with the size of the board.  At most MAX_HISTORY moves
+    //    can be undone.
+    private final Deque<HistoryEntry> undoHistory = new ArrayDeque<>();
+    private final Deque<HistoryEntry> redoHistory = new ArrayDeque<>();
+    public final static int MAX_HISTORY = 1000;
+    
+    //pool:
+    //    Blocks smashed off the board that have since left the history, for
+    //    later smashes to build with.
+    private final BlockPool pool;
+    public final static int POOL_CAPACITY = 4096;
+    
+    //journal:
+    //    Where moves and selections are logged, or null when they aren't.
+    private GameJournal journal;
+    
+    //players:
+    //    The players taking part in this game.
+    private final List<Player> players = new ArrayList<>();
+    
+    //random:
+    //    The game's random stream.  Every board generation or smash takes
+    //    a fresh seed from it, so a game is reproducible from its seed.
+    private final SplittableRandom random;
+    
+    // Boards generate in parallel when the new children have at least this
+    // many levels left below them.
+    private final static int PARALLEL_LEVELS = 6;
+    
     public Game()
     {
+        this(new SplittableRandom(), Block.DEFAULT_MAX_DEPTH, Block.DEFAULT_SIZE);
+    }
+    
+    public Game(long seed)
+    {
+        this(new SplittableRandom(seed), Block.DEFAULT_MAX_DEPTH, Block.DEFAULT_SIZE);
+    }
+    
+    // Method that starts a game on a random board maxDepth levels deep,
+    // drawn size pixels across.  Games of different depths and sizes can
+    // be played side by side.
+    //
+    // What deep boards cost, from bench/blocky/DeepBoardBenchmark at 640
+    // pixels on one core:
+    //    - Random boards stay small at any depth, since every level is less
+    //      likely to be subdivided than the one above: about 480 blocks,
+    //      generated in well under a millisecond, even at depth 12.
+    //    - getGrid keeps a byte per unit cell: 1 MB at depth 10, 4 MB at 11
+    //      and 17 MB at 12 (16.7 million cells), built in 10-50 ms.
+    //    - getLeafIndex stops at the smallest blocks that are still drawn
+    //      (level 7 at 640 pixels), about 100 KB however deep the board is.
+    //    - A board subdivided all the way down costs about 95 bytes a block:
+    //      131 MB and half a second at depth 10, so roughly 530 MB at 11 and
+    //      2.1 GB at 12.
+    public Game(int maxDepth, int size)
+    {
+        this(new SplittableRandom(), maxDepth, size);
+    }
+    
+    public Game(long seed, int maxDepth, int size)
+    {
+        this(new SplittableRandom(seed), maxDepth, size);
+    }
+    
+    // Method that starts a game on an existing board, at the board's depth
+    // and size.
+    public Game(Block inRoot)
+    {
+        random = new SplittableRandom();
+        root = inRoot;
+        highlightedBlock = null;
+        pool = new BlockPool(root.getMaxDepth(), POOL_CAPACITY);
+    }
+    
+    private Game(SplittableRandom inRandom, int maxDepth, int size)
+    {
+        random = inRandom;
 //        root = createTestBoard();
-        root = new Block();
+        root = new Block(maxDepth, size);
         createRandomChildren(root);
         highlightedBlock = null;
+        pool = new BlockPool(maxDepth, POOL_CAPACITY);
+    }
+    
+    // Method that returns the next seed from the game's random stream.
+    // Not thread-safe; only the thread playing the game should call it.
+    public long nextSeed()
+    {
+        return random.nextLong();
     }
     
     public void createRandomChildren(Block parent)
+    {
+        long start = Metrics.ENABLED ? System.nanoTime() : 0;
+        createRandomChildren(parent, new SplittableRandom(nextSeed()));
+        
+        if (Metrics.ENABLED)
+        {
+            Metrics.CREATE_RANDOM_CHILDREN.recordSince(start);
+        }
+    }
+    
+    // Method that gives parent four random children, and with a probability
+    // that falls with depth, subdivides them too.  All randomness comes from
+    // random, and every child gets a stream of its own split off before any
+    // child is built, so the result depends only on the stream, not on
+    // which thread builds which subtree.
+    public static void createRandomChildren(Block parent, SplittableRandom random)
+    {
+        createRandomChildren(parent, random, null);
+    }
+    
+    // Method that does the same, building with blocks and lists from pool
+    // when it isn't null.  The results are the same either way.
+    //
+    // Subdivided blocks have no color of their own, so parent, and any of
+    // its children that are subdivided in turn, lose theirs.  Their colors
+    // are still drawn, which keeps the stream, and with it every board a
+    // seed gives, as it was.  BoardCodec.decode, PersistentBlock and
+    // BlockArena build subdivided blocks the same way.
+    public static void createRandomChildren(Block parent, SplittableRandom random, BlockPool pool)
+    {
+        // The old children may still be in the undo history, so the new ones
+        // go in a list of their own.
+        fillRandomChildren(parent, pool == null ? new ArrayList<>() : pool.acquireList(), random, pool);
+    }
+    
+    // Method that puts four random children in the empty list children and
+    // gives them to parent.  Blocks built here have an empty list no one
+    // else has seen, which their own children can go in.
+    private static void fillRandomChildren(Block parent, List<Block> children, SplittableRandom random, BlockPool pool)
     {
         int childrenLevel = parent.getLevel() + 1;
         int childrenSize = parent.getSize() / 2;
         
-        List<Block> children = new ArrayList<>();
         Block block;
         Color color;
         
         //Create four blocks with random color
         for(int i = 0; i < 4; i++)
         {
-            int randomColorIndex = (int) (Math.random() * Block.COLORS.length);
+            int randomColorIndex = random.nextInt(Block.COLORS.length);
             color = Block.COLORS[randomColorIndex];
             
-            block = new Block(color, childrenLevel, childrenSize, parent);
-                       
+            if (pool == null)
+            {
+                block = new Block(color, childrenLevel, childrenSize, parent);
+            }
+            else
+            {
+                block = pool.acquire(color, childrenLevel, childrenSize, parent);
+            }
+            
             children.add(block);
         }
         
         parent.setChildren(children);
+        parent.setColor(null);
+        
+        if (Metrics.ENABLED)
+        {
+            Metrics.BLOCKS_CREATED.add(4);
+        }
         
-        if(childrenLevel < Block.MAX_DEPTH)
+        if(childrenLevel < parent.getMaxDepth())
         {
-            if (Math.random() < Math.exp(-0.25 * childrenLevel))
+            if (random.nextDouble() < Math.exp(-0.25 * childrenLevel))
             {
-                for(Block child : children)
+                SplittableRandom[] streams = new SplittableRandom[4];
+                
+                for(int i = 0; i < 4; i++)
                 {
-                    createRandomChildren(child);
+                    streams[i] = random.split();
+                }
+                
+                // A pool can't be shared between threads, so subtrees built
+                // in parallel are allocated afresh.
+                if(parent.getMaxDepth() - childrenLevel >= PARALLEL_LEVELS)
+                {
+                    ForkJoinTask.invokeAll(
+                            new RandomChildrenTask(children.get(0), streams[0]),
+                            new RandomChildrenTask(children.get(1), streams[1]),
+                            new RandomChildrenTask(children.get(2), streams[2]),
+                            new RandomChildrenTask(children.get(3), streams[3]));
+                }
+                else
+                {
+                    for(int i = 0; i < 4; i++)
+                    {
+                        fillRandomChildren(children.get(i), children.get(i).children, streams[i], pool);
+                    }
                 }
             }
             
@@ -58,11 +231,31 @@ public class Game
         
     }
     
+    // Builds one subtree of a large board on a fork-join worker.
+    @SuppressWarnings("serial")
+    private static class RandomChildrenTask extends RecursiveAction
+    {
+        private final Block parent;
+        private final SplittableRandom random;
+        
+        RandomChildrenTask(Block inParent, SplittableRandom inRandom)
+        {
+            parent = inParent;
+            random = inRandom;
+        }
+        
+        @Override
+        protected void compute()
+        {
+            fillRandomChildren(parent, parent.children, random, null);
+        }
+    }
+    
     public Block createTestBoard()
     {
         Block root = new Block();
-        root.setSize(Block.MAX_SIZE);
-        
+        root.setSize(Block.DEFAULT_SIZE);
+
         List<Block> rootChildren = new ArrayList<>();
         rootChildren.add(new Block(Block.DAFFODIL_DELIGHT, 1, 320, root));
         rootChildren.add(new Block(Block.OLD_OLIVE, 1, 320, root));
@@ -87,6 +280,258 @@ public class Game
     {
         return root;
     }
+    
+    // Method that returns the deepest level blocks on this board can reach.
+    public int getMaxDepth()
+    {
+        return root.getMaxDepth();
+    }
+    
+    // Method that returns the width and height of the board in pixels.
+    public int getSize()
+    {
+        return root.getSize();
+    }
+
+    // Method that plays a move on this game's board and returns the block it
+    // acted on.  The move can be undone with undo.
+    public Block applyMove(Move move)
+    {
+        Block block = move.findBlock(root);
+        
+        if (block == null)
+        {
+            return null;
+        }
+        
+        List<Block> oldChildren = block.getChildren();
+        Color oldColor = block.getColor();
+        long seed = 0;
+
+        // A smash draws its seed here so the journal can record it.
+        if (move.getType() == Move.Type.SMASH)
+        {
+            seed = nextSeed();
+            block.smash(seed, pool);
+            
+            // A highlighted block smashed off the board may be recycled
+            // once its smash leaves the history.
+            dropHighlightIfRemoved();
+        }
+        else
+        {
+            move.applyTo(block, this);
+        }
+        
+        List<Block> newChildren = block.getChildren();
+        
+        // Moves that left the block as it was aren't worth undoing.  Only a
+        // smash keeps its children, so that the history never holds on to
+        // blocks a later smash removed.
+        if (move.getType() == Move.Type.SMASH ? newChildren != oldChildren : !oldChildren.isEmpty())
+        {
+            boolean isSmash = move.getType() == Move.Type.SMASH;
+            undoHistory.push(new HistoryEntry(move, seed, isSmash ? oldChildren : null, isSmash ? newChildren : null,
+                    oldColor));
+            record(JournalEvent.move(move, seed));
+            
+            // Undone smashes can't be redone any more, and the oldest smash
+            // can't be undone, so the children they took off the board are
+            // no longer reachable.
+            for (HistoryEntry undone : redoHistory)
+            {
+                if (undone.newChildren != null)
+                {
+                    pool.release(undone.newChildren);
+                }
+            }
+            
+            redoHistory.clear();
+            
+            if (undoHistory.size() > MAX_HISTORY)
+            {
+                HistoryEntry oldest = undoHistory.removeLast();
+                
+                if (oldest.oldChildren != null)
+                {
+                    pool.release(oldest.oldChildren);
+                }
+            }
+        }
+        
+        return block;
+    }
+    
+    // Method that takes back the last move played, and returns the block it
+    // acted on, or null if there is nothing to undo.
+    public Block undo()
+    {
+        HistoryEntry entry = undoHistory.poll();
+        
+        if (entry == null)
+        {
+            return null;
+        }
+        
+        Block block = entry.move.findBlock(root);
+        
+        if (entry.move.getType() == Move.Type.SMASH)
+        {
+            block.setChildren(entry.oldChildren);
+            block.setColor(entry.oldColor);
+            block.fireBlockChanged();
+            dropHighlightIfRemoved();
+            
+            // Replaying rebuilds the old children as new blocks, so the
+            // selection has to be logged again in case it was among them.
+            record(JournalEvent.restore(block));
+            record(JournalEvent.select(highlightedBlock));
+        }
+        else
+        {
+            Move inverse = entry.move.inverse();
+            inverse.applyTo(block, this);
+            record(JournalEvent.move(inverse, 0));
+        }
+        
+        redoHistory.push(entry);
+        return block;
+    }
+    
+    // Method that plays the last undone move again, and returns the block it
+    // acted on, or null if there is nothing to redo.  A smash comes back
+    // with the same children it had before it was undone.
+    public Block redo()
+    {
+        HistoryEntry entry = redoHistory.poll();
+        
+        if (entry == null)
+        {
+            return null;
+        }
+        
+        Block block = entry.move.findBlock(root);
+        
+        if (entry.move.getType() == Move.Type.SMASH)
+        {
+            block.setChildren(entry.newChildren);
+            block.setColor(null);
+            block.fireBlockChanged();
+            dropHighlightIfRemoved();
+            
+            // The same seed gives the same children when replayed.
+            record(JournalEvent.move(entry.move, entry.seed));
+            record(JournalEvent.select(highlightedBlock));
+        }
+        else
+        {
+            entry.move.applyTo(block, this);
+            record(JournalEvent.move(entry.move, 0));
+        }
+        
+        undoHistory.push(entry);
+        return block;
+    }
+    
+    public boolean canUndo()
+    {
+        return !undoHistory.isEmpty();
+    }
+    
+    public boolean canRedo()
+    {
+        return !redoHistory.isEmpty();
+    }
+    
+    // Method that forgets the highlighted block if undoing or redoing a smash
+    // took it off the board.
+    private void dropHighlightIfRemoved()
+    {
+        Block current = highlightedBlock;
+        
+        while (current != null && current != root)
+        {
+            // Blocks that were smashed off still point at their old parent.
+            current = current.getQuadrant() < 0 ? null : current.getParent();
+        }
+        
+        if (highlightedBlock != null && current == null)
+        {
+            highlightedBlock.setHighlighted(false);
+            highlightedBlock = null;
+        }
+    }
+    
+    public void addPlayer(Player player)
+    {
+        players.add(player);
+    }
+    
+    public List<Player> getPlayers()
+    {
+        return players;
+    }
+    
+    public BlockPool getPool()
+    {
+        return pool;
+    }
+    
+    // Method that returns how many unit cells of the board have each color
+    // in Block.COLORS, in the same order.
+    public int[] getColorAreas()
+    {
+        return root.getColorAreas();
+    }
+    
+    // Method that returns the share of the board's unit cells that have
+    // color, from 0 to 1.
+    public double getColorShare(Color color)
+    {
+        int colorIndex = Block.colorIndex(color);
+        return colorIndex < 0 ? 0 : (double) root.getColorArea(colorIndex) / root.getArea();
+    }
+
+    // Method that returns the flattened board, building it on first use.
+    public BoardGrid getGrid()
+    {
+        if (grid == null)
+        {
+            grid = new BoardGrid(root, getMaxDepth());
+        }
+        
+        return grid;
+    }
+
+    // Method that returns the pixel to leaf index, building it on first use.
+    // The index only goes as deep as blocks are drawn, so a deep board
+    // doesn't get a slot for every one of its unit cells.
+    public LeafIndex getLeafIndex()
+    {
+        if (leafIndex == null)
+        {
+            int drawnDepth = BoardPainter.deepestDrawnLevel(root.getSize());
+            leafIndex = new LeafIndex(root, Math.min(getMaxDepth(), drawnDepth));
+        }
+        
+        return leafIndex;
+    }
+    
+    // Method that returns the block at the given level drawn at pixel
+    // (x, y), or the deepest block there if the board is not subdivided that
+    // deep or its blocks are too small to draw by then.  Returns null if the
+    // pixel is off the board.
+    public Block blockAt(int x, int y, int level)
+    {
+        Block block = getLeafIndex().leafAt(x, y);
+        
+        while (block != null && block.getLevel() > level)
+        {
+            block = block.getParent();
+        }
+        
+        return block;
+    }
 
     public Block getHighlightedBlock()
     {
@@ -95,11 +540,100 @@ public class Game
 
     public void setRoot(Block root)
     {
+        if (grid != null)
+        {
+            grid.detach();
+            grid = null;
+        }
+        
+        if (leafIndex != null)
+        {
+            leafIndex.detach();
+            leafIndex = null;
+        }
+        
         this.root = root;
+        undoHistory.clear();
+        redoHistory.clear();
     }
 
     public void setHighlightedBlock(Block highlightedBlock)
     {
         this.highlightedBlock = highlightedBlock;
+        record(JournalEvent.select(highlightedBlock));
+    }
+    
+    // Method that moves the highlight to block, or clears it when block is
+    // null, without journaling the change.
+    void select(Block block)
+    {
+        if (highlightedBlock != null)
+        {
+            highlightedBlock.setHighlighted(false);
+        }
+        
+        if (block != null)
+        {
+            block.setHighlighted(true);
+        }
+        
+        highlightedBlock = block;
+    }
+    
+    // Method that plays a batch of journaled events on the board.  They are
+    // not journaled again and can't be undone.  Listeners hear about each
+    // change as it happens, so a renderer can collect them and draw once
+    // when the batch is done.
+    public void replay(List<JournalEvent> events)
+    {
+        for (JournalEvent event : events)
+        {
+            event.applyTo(this);
+        }
+        
+        dropHighlightIfRemoved();
+    }
+    
+    public GameJournal getJournal()
+    {
+        return journal;
+    }
+    
+    // Method that starts logging moves and selections to journal, or stops
+    // when journal is null.
+    public void setJournal(GameJournal journal)
+    {
+        this.journal = journal;
+    }
+    
+    private void record(JournalEvent event)
+    {
+        if (journal != null)
+        {
+            journal.record(event, this);
+        }
+    }
+    
+    // One move in the undo history.  For a smash, its seed and the children
+    // the block had before and after it; the children are needed because a
+    // smash can't be undone by another move.  oldColor is the block's color
+    // before the move, which a smashed leaf gets back when it is undone.
+    private static class HistoryEntry
+    {
+        final Move move;
+        final long seed;
+        final List<Block> oldChildren;
+        final List<Block> newChildren;
+        final Color oldColor;
+        
+        HistoryEntry(Move inMove, long inSeed, List<Block> inOldChildren, List<Block> inNewChildren,
+                Color inOldColor)
+        {
+            move = inMove;
+            seed = inSeed;
+            oldChildren = inOldChildren;
+            newChildren = inNewChildren;
+            oldColor = inOldColor;
+        }
     }
 }
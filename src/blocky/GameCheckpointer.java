@@ -0,0 +1,299 @@
+package blocky;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
+
+// Keeps a file holding the latest board of a game, written behind the game
+// so a crash loses at most the last few moves and playing never waits on
+// the disk.  Where GameJournal logs every move, this only keeps the board.
+//
+// A change to the board only sets a flag on the game's thread.  The first
+// change after a checkpoint also schedules the next one delayMillis later,
+// so a burst of moves is saved once, as it stands at the end of the delay.
+// The board is encoded with BoardCodec on the game's thread, the only one
+// that may read it, and written on a thread of its own, to a temporary
+// file first and then moved over the checkpoint, so a crash leaves the old
+// or the new checkpoint and never half of one.
+//
+// The file holds MAGIC, VERSION, the board's depth and size, the encoded
+// board and the selection.
+public class GameCheckpointer implements BlockListener, Closeable
+{
+    final static int MAGIC = 0x424C4B43; // "BLKC"
+    final static int VERSION = 1;
+    
+    public final static long DEFAULT_DELAY_MILLIS = 1000;
+    
+    // How long close waits for the game's thread to capture the last board.
+    private final static long CLOSE_TIMEOUT_MILLIS = 2000;
+    
+    private final Path path;
+    private final Path temporaryPath;
+    private final Game game;
+    
+    //gameThread:
+    //    Runs tasks on the thread that plays the game, e.g.
+    //    GameRenderer.runOnRenderThread.
+    private final Executor gameThread;
+    private final long delayMillis;
+    private final ScheduledExecutorService writer;
+    
+    //changed:
+    //    Set when the board changes and cleared when it is captured.  Only
+    //    touched on the game's thread.
+    private boolean changed;
+    
+    //latest:
+    //    The newest captured checkpoint not yet written.  If the disk falls
+    //    behind, a newer capture replaces it instead of queueing up.
+    private final AtomicReference<byte[]> latest = new AtomicReference<>();
+    
+    //changes, checkpoints:
+    //    Changes heard about on the game's thread, and checkpoints written
+    //    on the writer's.  changes is a plain field, so as not to slow
+    //    down moves; read on another thread it may lag behind.
+    private long changes;
+    private volatile long checkpoints;
+    
+    //failure:
+    //    The first error the writer thread ran into, reported by close.
+    private volatile IOException failure;
+    
+    // Method that starts checkpointing game to the file at path, with
+    // checkpoints coming at most delayMillis after a change.  gameThread must
+    // run tasks on the thread that plays game; the board as it is then is
+    // saved straight away.
+    public static GameCheckpointer start(Path path, Game game, Executor gameThread, long delayMillis)
+    {
+        GameCheckpointer checkpointer = new GameCheckpointer(path, game, gameThread, delayMillis);
+        
+        gameThread.execute(() ->
+        {
+            game.getRoot().addBlockListener(checkpointer);
+            checkpointer.changed = true;
+            checkpointer.capture();
+        });
+        
+        return checkpointer;
+    }
+    
+    // Method that rebuilds the game checkpointed at path.
+    public static Game restore(Path path) throws IOException
+    {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path))))
+        {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION)
+            {
+                throw new IOException("Not a game checkpoint: " + path);
+            }
+            
+            int maxDepth = in.readInt();
+            int size = in.readInt();
+            byte[] board = new byte[in.readInt()];
+            in.readFully(board);
+            
+            Game game = new Game(BoardCodec.decode(board, maxDepth, size));
+            JournalEvent.read(in).applyTo(game);
+            return game;
+        }
+    }
+    
+    private GameCheckpointer(Path inPath, Game inGame, Executor inGameThread, long inDelayMillis)
+    {
+        path = inPath;
+        temporaryPath = path.resolveSibling(path.getFileName() + ".tmp");
+        game = inGame;
+        gameThread = inGameThread;
+        delayMillis = inDelayMillis;
+        
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, task ->
+        {
+            Thread thread = new Thread(task, "GameCheckpointer " + path.getFileName());
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+        writer = executor;
+    }
+    
+    @Override
+    public void blockChanged(Block block)
+    {
+        changed();
+    }
+    
+    @Override
+    public void highlightChanged(Block block)
+    {
+        changed();
+    }
+    
+    // Method that notes a change on the game's thread and, if it is the
+    // first since the last capture, schedules the next one.
+    private void changed()
+    {
+        changes++;
+        
+        if (!changed)
+        {
+            changed = true;
+            writer.schedule(() -> gameThread.execute(this::capture), delayMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+    
+    // Method that encodes the board on the game's thread, if it changed
+    // since the last capture, and hands it to the writer thread.
+    private void capture()
+    {
+        if (!changed || failure != null || writer.isShutdown())
+        {
+            return;
+        }
+        
+        changed = false;
+        long start = Metrics.ENABLED ? System.nanoTime() : 0;
+        
+        // The encoded board is a few hundred bytes on a normal board, so it
+        // is built here in full and the writer only copies it out.
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        
+        try (DataOutputStream out = new DataOutputStream(bytes))
+        {
+            byte[] board = BoardCodec.encode(game.getRoot());
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(game.getMaxDepth());
+            out.writeInt(game.getSize());
+            out.writeInt(board.length);
+            out.write(board);
+            JournalEvent.select(game.getHighlightedBlock()).write(out);
+        }
+        catch (IOException e)
+        {
+            // Writing to memory doesn't fail.
+            throw new AssertionError(e);
+        }
+        
+        if (Metrics.ENABLED)
+        {
+            Metrics.CHECKPOINT_CAPTURE.recordSince(start);
+        }
+        
+        if (latest.getAndSet(bytes.toByteArray()) == null)
+        {
+            writer.execute(this::writeLatest);
+        }
+    }
+    
+    // The writer thread: replaces the checkpoint file with the newest
+    // capture.
+    private void writeLatest()
+    {
+        byte[] checkpoint = latest.getAndSet(null);
+        
+        if (checkpoint == null || failure != null)
+        {
+            return;
+        }
+        
+        try
+        {
+            try (FileChannel channel = FileChannel.open(temporaryPath, StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING))
+            {
+                ByteBuffer buffer = ByteBuffer.wrap(checkpoint);
+                
+                while (buffer.hasRemaining())
+                {
+                    channel.write(buffer);
+                }
+                
+                // On disk before the move, so the rename can't expose an
+                // empty file after a power cut.
+                channel.force(false);
+            }
+            
+            Files.move(temporaryPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            checkpoints++;
+        }
+        catch (IOException e)
+        {
+            failure = e;
+        }
+    }
+    
+    // Method that returns the changes heard about so far.  Each checkpoint
+    // written covers all the changes before it, so the gap between the two
+    // counts is how many writes coalescing saved.
+    public long getChangeCount()
+    {
+        return changes;
+    }
+    
+    public long getCheckpointCount()
+    {
+        return checkpoints;
+    }
+    
+    public Path getPath()
+    {
+        return path;
+    }
+    
+    // Method that saves the board once more if it changed since the last
+    // checkpoint, writes out what is queued and stops the writer thread.
+    // It waits on the game's thread for the last capture, so it must be
+    // called from another thread, e.g. a shutdown hook.
+    @Override
+    public void close() throws IOException
+    {
+        FutureTask<Void> last = new FutureTask<>(() ->
+        {
+            game.getRoot().removeBlockListener(this);
+            capture();
+        }, null);
+        
+        try
+        {
+            gameThread.execute(last);
+            last.get(CLOSE_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+            writer.shutdown();
+            writer.awaitTermination(CLOSE_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while closing the checkpointer", e);
+        }
+        catch (ExecutionException | TimeoutException e)
+        {
+            throw new IOException("Couldn't take the last checkpoint", e);
+        }
+        finally
+        {
+            writer.shutdown();
+        }
+        
+        if (failure != null)
+        {
+            throw failure;
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package blocky;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+
+// One connection to a GameServer on this machine.  Requests are sent one at
+// a time and each call waits for its answer, so a client must not be shared
+// between threads; open one per thread instead.  See GameServer for the
+// protocol.
+public class GameClient implements Closeable
+{
+    private final Socket socket;
+    private final DataInputStream in;
+    private final DataOutputStream out;
+    
+    //lastHash:
+    //    The board's Zobrist hash after the last move that was played.
+    private long lastHash;
+    
+    public GameClient(int port) throws IOException
+    {
+        socket = new Socket(InetAddress.getLoopbackAddress(), port);
+        socket.setTcpNoDelay(true);
+        in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+    }
+    
+    // Method that starts a game on a new random board and returns its
+    // session.
+    public int open(long seed, int depth) throws IOException
+    {
+        out.writeByte(GameServer.OPEN);
+        out.writeLong(seed);
+        out.writeByte(depth);
+        expectOk("OPEN");
+        return in.readInt();
+    }
+    
+    // Method that plays a move in a session, and returns false if the board
+    // has no block at the move's path.  getLastHash then gives the board's
+    // hash.
+    public boolean move(int session, Move move) throws IOException
+    {
+        out.writeByte(GameServer.MOVE);
+        out.writeInt(session);
+        out.writeByte(move.getType().ordinal());
+        JournalEvent.writePath(out, move.getPath());
+        
+        int status = send();
+        
+        if (status == GameServer.NO_BLOCK)
+        {
+            return false;
+        }
+        
+        checkStatus(status, "MOVE");
+        lastHash = in.readLong();
+        return true;
+    }
+    
+    // Method that returns a copy of a session's board.
+    public Block board(int session) throws IOException
+    {
+        out.writeByte(GameServer.BOARD);
+        out.writeInt(session);
+        expectOk("BOARD");
+        
+        int maxDepth = in.readInt();
+        int size = in.readInt();
+        byte[] board = new byte[in.readInt()];
+        in.readFully(board);
+        return BoardCodec.decode(board, maxDepth, size);
+    }
+    
+    public GameServer.SessionStats stats(int session) throws IOException
+    {
+        out.writeByte(GameServer.STATS);
+        out.writeInt(session);
+        expectOk("STATS");
+        return new GameServer.SessionStats(in.readLong(), in.readLong(), in.readLong());
+    }
+    
+    public GameServer.ServerStats serverStats() throws IOException
+    {
+        out.writeByte(GameServer.SERVER_STATS);
+        expectOk("SERVER_STATS");
+        return new GameServer.ServerStats(in.readInt(), in.readLong(), in.readLong(), in.readLong(),
+                in.readLong(), in.readLong(), in.readLong());
+    }
+    
+    // Method that ends a session; the server forgets its game.
+    public void closeSession(int session) throws IOException
+    {
+        out.writeByte(GameServer.CLOSE);
+        out.writeInt(session);
+        expectOk("CLOSE");
+    }
+    
+    public long getLastHash()
+    {
+        return lastHash;
+    }
+    
+    // Method that sends the request written so far and returns the status
+    // the server answers with.
+    private int send() throws IOException
+    {
+        out.flush();
+        return in.readUnsignedByte();
+    }
+    
+    private void expectOk(String request) throws IOException
+    {
+        checkStatus(send(), request);
+    }
+    
+    private static void checkStatus(int status, String request) throws IOException
+    {
+        switch (status)
+        {
+            case GameServer.OK:
+                return;
+            case GameServer.NO_SESSION:
+                throw new IOException(request + ": no such session");
+            case GameServer.NO_BLOCK:
+                throw new IOException(request + ": no block at the move's path");
+            case GameServer.FULL:
+                throw new IOException(request + ": the server has too many sessions");
+            case GameServer.BAD_REQUEST:
+                throw new IOException(request + ": bad request");
+            default:
+                throw new IOException(request + ": unknown status " + status);
+        }
+    }
+    
+    @Override
+    public void close() throws IOException
+    {
+        socket.close();
+    }
+}
@@ -0,0 +1,60 @@
+package blocky;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// Executors for running many independent games at once.
+public final class GameExecutors
+{
+    private GameExecutors()
+    {
+    }
+    
+    // Method that returns an executor starting one virtual thread per task
+    // when the JDK has them (21 and later), and otherwise a pool with one
+    // platform thread per core.  Looked up reflectively so the project still
+    // builds for older releases.
+    public static ExecutorService newPerTaskExecutor()
+    {
+        try
+        {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        }
+        catch (ReflectiveOperationException e)
+        {
+            return Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        }
+    }
+    
+    // Method that returns an executor for tasks that spend most of their
+    // time blocked, such as serving a socket: one virtual thread per task
+    // where the JDK has them, and otherwise one daemon platform thread per
+    // task, since a fixed pool would leave tasks queued behind blocked ones.
+    public static ExecutorService newBlockingTaskExecutor()
+    {
+        if (hasVirtualThreads())
+        {
+            return newPerTaskExecutor();
+        }
+        
+        return Executors.newCachedThreadPool(task ->
+        {
+            Thread thread = new Thread(task);
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+    
+    // Method that tells whether newPerTaskExecutor hands out virtual threads.
+    public static boolean hasVirtualThreads()
+    {
+        try
+        {
+            Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return true;
+        }
+        catch (NoSuchMethodException e)
+        {
+            return false;
+        }
+    }
+}
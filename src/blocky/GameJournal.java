@@ -0,0 +1,451 @@
+package blocky;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+// An append-only log of everything done to one game, written behind the
+// game on a thread of its own so that playing never waits on the disk.
+//
+// Every snapshotInterval events the journal also saves the whole board,
+// encoded with BoardCodec, and the selection in a snapshot file next to the
+// log.  The snapshot notes how far into the log it was taken, so recovering
+// a game decodes the snapshot and replays only the events written after it,
+// no matter how long the game has been going.
+//
+// The log starts with MAGIC and VERSION, followed by the events as written
+// by JournalEvent.  A crash can leave a partial event at the end, which
+// readers ignore.
+public class GameJournal implements Closeable
+{
+    final static int MAGIC = 0x424C4B4A; // "BLKJ"
+    final static int SNAPSHOT_MAGIC = 0x424C4B53; // "BLKS"
+    // Version 2 added the board's depth and size to the snapshot.
+    final static int VERSION = 2;
+    final static int HEADER_SIZE = 8;
+    
+    public final static int DEFAULT_SNAPSHOT_INTERVAL = 1000;
+    
+    private final Path path;
+    private final Path snapshotPath;
+    private final int snapshotInterval;
+    
+    //queue:
+    //    Events and snapshots waiting for the writer thread, in order.
+    private final BlockingQueue<Object> queue = new LinkedBlockingQueue<>();
+    
+    // Marks the end of the queue when the journal is closed.
+    private final static Object CLOSE = new Object();
+    
+    private final Thread writer;
+    
+    //eventCount:
+    //    Events recorded so far, counted on the game's thread.  A resumed
+    //    journal starts from the events already logged after its snapshot.
+    private long eventCount;
+    
+    //failure:
+    //    The first error the writer thread ran into, reported by close.
+    private volatile IOException failure;
+    
+    // A snapshot waiting for the writer thread: the encoded board, its depth
+    // and size, and the selection on it.
+    private static class Snapshot
+    {
+        final byte[] board;
+        final int maxDepth;
+        final int size;
+        final JournalEvent selection;
+        
+        Snapshot(byte[] inBoard, int inMaxDepth, int inSize, JournalEvent inSelection)
+        {
+            board = inBoard;
+            maxDepth = inMaxDepth;
+            size = inSize;
+            selection = inSelection;
+        }
+    }
+    
+    // Method that starts a journal for game in the file at path, replacing
+    // any journal already there, and snapshots the board as it is now.  To
+    // carry on a journal that recover read back, use resume instead.
+    public static GameJournal start(Path path, Game game) throws IOException
+    {
+        return start(path, game, DEFAULT_SNAPSHOT_INTERVAL);
+    }
+    
+    public static GameJournal start(Path path, Game game, int snapshotInterval) throws IOException
+    {
+        try (DataOutputStream out = new DataOutputStream(Files.newOutputStream(path)))
+        {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+        }
+        
+        // The first snapshot is written before anything else can happen, so
+        // the log never exists without one.
+        writeSnapshot(snapshotPathOf(path), snapshotOf(game), HEADER_SIZE);
+        return new GameJournal(path, snapshotInterval, 0);
+    }
+    
+    // Method that carries on the journal at path for game, which recover has
+    // just rebuilt from it.  New events are appended to the log, so every
+    // earlier one stays there and the snapshot keeps its offset; only an
+    // event a crash cut off at the end is dropped first.
+    public static GameJournal resume(Path path, Game game) throws IOException
+    {
+        return resume(path, game, DEFAULT_SNAPSHOT_INTERVAL);
+    }
+    
+    public static GameJournal resume(Path path, Game game, int snapshotInterval) throws IOException
+    {
+        Path snapshotPath = snapshotPathOf(path);
+        long offset;
+        
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(snapshotPath))))
+        {
+            offset = readSnapshotHeader(in, snapshotPath);
+        }
+        
+        List<JournalEvent> events = new ArrayList<>();
+        long end = readEvents(path, offset, events);
+        
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE))
+        {
+            channel.truncate(end);
+        }
+        
+        // A log cut short before the snapshot's offset lost events the
+        // snapshot already holds, so new events would land where replaying
+        // skips them.  A new snapshot of game marks where the log goes on.
+        if (end < offset)
+        {
+            writeSnapshot(snapshotPath, snapshotOf(game), end);
+            events.clear();
+        }
+        
+        // Snapshots keep coming every snapshotInterval events, counting the
+        // ones already in the log after the last snapshot.
+        return new GameJournal(path, snapshotInterval, events.size());
+    }
+
+    // Method that rebuilds the game journaled at path: the last snapshot
+    // with every later event replayed on it in one batch.  The game has no
+    // journal attached.
+    public static Game recover(Path path) throws IOException
+    {
+        Path snapshotPath = snapshotPathOf(path);
+        long offset;
+        Game game;
+        
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(snapshotPath))))
+        {
+            offset = readSnapshotHeader(in, snapshotPath);
+            int maxDepth = in.readInt();
+            int size = in.readInt();
+            byte[] board = new byte[in.readInt()];
+            in.readFully(board);
+            JournalEvent selection = JournalEvent.read(in);
+            
+            game = new Game(BoardCodec.decode(board, maxDepth, size));
+            selection.applyTo(game);
+        }
+        
+        game.replay(readEvents(path, offset));
+        return game;
+    }
+    
+    // Method that checks a snapshot file's header and returns the log
+    // offset it was taken at.
+    private static long readSnapshotHeader(DataInputStream in, Path snapshotPath) throws IOException
+    {
+        if (in.readInt() != SNAPSHOT_MAGIC || in.readInt() != VERSION)
+        {
+            throw new IOException("Not a journal snapshot: " + snapshotPath);
+        }
+        
+        return in.readLong();
+    }
+    
+    // Method that reads the events in the log at path from offset on.
+    public static List<JournalEvent> readEvents(Path path, long offset) throws IOException
+    {
+        List<JournalEvent> events = new ArrayList<>();
+        readEvents(path, offset, events);
+        return events;
+    }
+    
+    // Method that adds the events in the log at path from offset on to
+    // events, and returns where the last whole event in the log ends.
+    private static long readEvents(Path path, long offset, List<JournalEvent> events) throws IOException
+    {
+        try (InputStream stream = Files.newInputStream(path))
+        {
+            CountingInputStream counter = new CountingInputStream(new BufferedInputStream(stream));
+            DataInputStream in = new DataInputStream(counter);
+            
+            if (in.readInt() != MAGIC || in.readInt() != VERSION)
+            {
+                throw new IOException("Not a game journal: " + path);
+            }
+            
+            // A log shorter than the snapshot's offset was cut short by a
+            // crash; there is nothing after the snapshot to replay.
+            long size = Files.size(path);
+            
+            if (size < offset)
+            {
+                return size;
+            }
+            
+            in.skipNBytes(offset - HEADER_SIZE);
+            long end = offset;
+            
+            while (true)
+            {
+                try
+                {
+                    events.add(JournalEvent.read(in));
+                    end = counter.count;
+                }
+                catch (EOFException e)
+                {
+                    // The end of the log, or an event cut off by a crash.
+                    break;
+                }
+            }
+            
+            return end;
+        }
+    }
+    
+    // Counts the bytes read through it, so the log's readers know where each
+    // event ends.
+    private static class CountingInputStream extends FilterInputStream
+    {
+        long count;
+        
+        CountingInputStream(InputStream in)
+        {
+            super(in);
+        }
+        
+        @Override
+        public int read() throws IOException
+        {
+            int value = super.read();
+            
+            if (value >= 0)
+            {
+                count++;
+            }
+            
+            return value;
+        }
+        
+        @Override
+        public int read(byte[] bytes, int offset, int length) throws IOException
+        {
+            int read = super.read(bytes, offset, length);
+            
+            if (read > 0)
+            {
+                count += read;
+            }
+            
+            return read;
+        }
+        
+        @Override
+        public long skip(long n) throws IOException
+        {
+            long skipped = super.skip(n);
+            count += skipped;
+            return skipped;
+        }
+    }
+
+    private GameJournal(Path inPath, int inSnapshotInterval, long inEventCount) throws IOException
+    {
+        path = inPath;
+        snapshotPath = snapshotPathOf(path);
+        snapshotInterval = inSnapshotInterval;
+        eventCount = inEventCount;
+
+        FileOutputStream file = new FileOutputStream(path.toFile(), true);
+        
+        writer = new Thread(() -> writeBehind(file), "GameJournal " + path.getFileName());
+        writer.setDaemon(true);
+        writer.start();
+    }
+    
+    // Method that queues event for writing and, when one is due, queues a
+    // snapshot of game as it is after the event.  Called on the thread that
+    // plays the game.
+    public void record(JournalEvent event, Game game)
+    {
+        // Once the writer has failed nothing more is written; close reports
+        // the failure.
+        if (failure != null)
+        {
+            return;
+        }
+        
+        queue.add(event);
+        eventCount++;
+        
+        if (eventCount % snapshotInterval == 0)
+        {
+            snapshot(game);
+        }
+    }
+    
+    // Method that queues a snapshot of game as it is now.
+    public void snapshot(Game game)
+    {
+        queue.add(snapshotOf(game));
+    }
+    
+    private static Snapshot snapshotOf(Game game)
+    {
+        return new Snapshot(BoardCodec.encode(game.getRoot()), game.getMaxDepth(), game.getSize(),
+                JournalEvent.select(game.getHighlightedBlock()));
+    }
+    
+    public long getEventCount()
+    {
+        return eventCount;
+    }
+    
+    public Path getPath()
+    {
+        return path;
+    }
+    
+    // Method that writes out everything queued and stops the writer thread.
+    @Override
+    public void close() throws IOException
+    {
+        queue.add(CLOSE);
+        
+        try
+        {
+            writer.join();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while closing the journal", e);
+        }
+        
+        if (failure != null)
+        {
+            throw failure;
+        }
+    }
+    
+    // The writer thread: takes whatever has been queued, writes it, and
+    // flushes once per batch rather than once per event.
+    private void writeBehind(FileOutputStream file)
+    {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file));
+        List<Object> batch = new ArrayList<>();
+        boolean closing = false;
+        
+        try
+        {
+            while (!closing)
+            {
+                batch.add(queue.take());
+                queue.drainTo(batch);
+                
+                for (Object item : batch)
+                {
+                    if (item == CLOSE)
+                    {
+                        closing = true;
+                    }
+                    else if (item instanceof Snapshot)
+                    {
+                        // The snapshot must not point past events that
+                        // aren't on disk yet.
+                        out.flush();
+                        writeSnapshot(snapshotPath, (Snapshot) item, file.getChannel().position());
+                    }
+                    else
+                    {
+                        ((JournalEvent) item).write(out);
+                    }
+                }
+                
+                batch.clear();
+                out.flush();
+            }
+        }
+        catch (IOException e)
+        {
+            failure = e;
+        }
+        catch (InterruptedException e)
+        {
+            failure = new IOException("Journal writer interrupted", e);
+        }
+        finally
+        {
+            try
+            {
+                out.close();
+            }
+            catch (IOException e)
+            {
+                if (failure == null)
+                {
+                    failure = e;
+                }
+            }
+        }
+    }
+    
+    // Method that replaces the snapshot file, writing a temporary file first
+    // and moving it into place so a crash leaves the old or the new snapshot.
+    private static void writeSnapshot(Path snapshotPath, Snapshot snapshot, long offset) throws IOException
+    {
+        Path temporary = snapshotPath.resolveSibling(snapshotPath.getFileName() + ".tmp");
+        
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary))))
+        {
+            out.writeInt(SNAPSHOT_MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(offset);
+            out.writeInt(snapshot.maxDepth);
+            out.writeInt(snapshot.size);
+            out.writeInt(snapshot.board.length);
+            out.write(snapshot.board);
+            snapshot.selection.write(out);
+        }
+        
+        Files.move(temporary, snapshotPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+    
+    static Path snapshotPathOf(Path path)
+    {
+        Path fileName = path.getFileName();
+        return path.resolveSibling(fileName == null ? Paths.get("journal.snapshot") : Paths.get(fileName + ".snapshot"));
+    }
+}
@@ -1,13 +1,21 @@
 package blocky;
 
-import java.awt.Color;
 import java.awt.Dimension;
 import java.awt.Graphics;
-import java.awt.Image;
+import java.awt.Rectangle;
 import java.awt.event.MouseEvent;
 import java.awt.event.MouseListener;
+import java.awt.event.MouseMotionListener;
+import java.awt.event.MouseWheelEvent;
+import java.awt.event.MouseWheelListener;
 import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
 import javax.swing.BoxLayout;
 import javax.swing.JComponent;
 import javax.swing.JFrame;
@@ -17,28 +25,359 @@ import java.awt.event.KeyListener;
 import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
 
-public class GameRenderer extends JComponent implements MouseListener, KeyListener
+// Draws a game in a window and turns key presses and clicks into moves.
+//
+// The game belongs to a render thread of its own.  The event thread only
+// queues input; the render thread takes everything queued since its last
+// frame, applies it all, and draws one frame for the lot, so holding a key
+// down never queues up more frames than the board can draw.  Frames are drawn
+// into a back image and swapped in whole, so paintComponent always shows a
+// finished frame and never waits on a move.
+//
+// The wheel (or + and -) zooms in and out around the pointer, dragging pans
+// and 0 shows the whole board again.  Only the part of the board in view is
+// drawn, and blocks too small to see are drawn as their parent, so a
+// frame costs about the same however deep the board is.
+public class GameRenderer extends JComponent implements MouseListener, MouseMotionListener,
+        MouseWheelListener, KeyListener, BlockListener
 {
-    private Image image;
     private JFrame frame;
     private Game game;
     
+    //front:
+    //    Paints the last finished frame, the one paintComponent shows.  Each
+    //    image is locked while it is drawn or shown.
+    private volatile BoardPainter front;
+    
+    //back:
+    //    Paints the next frame.  Only the render thread touches it.
+    private BoardPainter back;
+    
+    //painted:
+    //    The rectangles the last frame drew into front, which back hasn't
+    //    caught up with yet.
+    private final List<Rectangle> painted = new ArrayList<>();
+    
+    //dirtyBlocks:
+    //    Blocks whose rectangle changed since the last frame.  Only these
+    //    subtrees are repainted, unless fullRepaint is set.
+    private final Set<Block> dirtyBlocks = new LinkedHashSet<>();
+    private boolean fullRepaint = true;
+    
+    //viewport:
+    //    The zoom and pan of the board in the window.  Any change to it
+    //    repaints the whole frame.
+    private final Viewport viewport;
+    
+    //dragX, dragY:
+    //    Where the last drag event was, on the event thread.
+    private int dragX;
+    private int dragY;
+
+    //inputs:
+    //    Input waiting for the render thread, in the order it arrived.
+    private final BlockingQueue<Input> inputs = new LinkedBlockingQueue<>();
+    private final Thread renderThread;
+    
+    // An input event waiting for the render thread.  A null action only asks
+    // for a frame.
+    private static class Input
+    {
+        final Runnable action;
+        
+        //arrival:
+        //    The System.nanoTime() reading when the event came in, or 0 when
+        //    metrics are off.
+        final long arrival;
+        
+        //isInput:
+        //    False for work other threads hand the render thread, which
+        //    isn't counted as input and doesn't ask for a frame by itself.
+        final boolean isInput;
+        
+        Input(Runnable inAction, boolean inIsInput)
+        {
+            action = inAction;
+            arrival = Metrics.ENABLED ? System.nanoTime() : 0;
+            isInput = inIsInput;
+        }
+    }
+    
+    // From here on the game must only be touched through the renderer, which
+    // plays it on the render thread.
     public GameRenderer(Game inGame)
     {
         game = inGame;
+        viewport = new Viewport(game.getSize(), game.getMaxDepth(), game.getSize(), game.getSize());
+        game.getRoot().addBlockListener(this);
         setUpRenderer();
+        
+        renderThread = new Thread(this::render, "Blocky renderer");
+        renderThread.setDaemon(true);
+        renderThread.start();
     }
     
+    // Method that asks the render thread for a frame and returns at once.
     public void display()
     {
-        paintBlocks(game.getRoot(), 0, 0);
-        paintHighlightedBlock();
-        repaint();
+        inputs.add(new Input(null, true));
+    }
+    
+    // Method that queues action to run on the render thread, followed by a
+    // frame unless more input is already waiting.
+    private void submit(Runnable action)
+    {
+        inputs.add(new Input(action, true));
+    }
+    
+    // Method that queues action to run on the render thread, which owns the
+    // game, between frames.  For background work such as GameCheckpointer's;
+    // it draws no frame unless the action changes the board.
+    public void runOnRenderThread(Runnable action)
+    {
+        inputs.add(new Input(action, false));
+    }
+    
+    // The render thread: waits for input, takes whatever else has been
+    // queued behind it, plays it all, and draws one frame.
+    private void render()
+    {
+        List<Input> batch = new ArrayList<>();
+        long[] arrivals = new long[16];
+        
+        while (true)
+        {
+            try
+            {
+                batch.add(inputs.take());
+            }
+            catch (InterruptedException e)
+            {
+                return;
+            }
+            
+            inputs.drainTo(batch);
+            long[] inputEvent = Metrics.beginInputEvent();
+            int count = 0;
+            boolean frameWanted = false;
+            
+            for (Input input : batch)
+            {
+                frameWanted |= input.isInput;
+                
+                if (input.action == null)
+                {
+                    continue;
+                }
+                
+                if (input.isInput)
+                {
+                    if (count == arrivals.length)
+                    {
+                        arrivals = Arrays.copyOf(arrivals, count * 2);
+                    }
+                    
+                    arrivals[count++] = input.arrival;
+                }
+                
+                try
+                {
+                    input.action.run();
+                }
+                catch (RuntimeException e)
+                {
+                    // Like the event thread, drop the one input and carry on.
+                    e.printStackTrace();
+                }
+            }
+            
+            batch.clear();
+            
+            if (frameWanted || fullRepaint || !dirtyBlocks.isEmpty())
+            {
+                renderFrame();
+            }
+            
+            Metrics.endInputEvents(inputEvent, arrivals, count);
+        }
+    }
+    
+    // Method that draws the next frame into back and swaps it in.
+    private void renderFrame()
+    {
+        long start = Metrics.ENABLED ? System.nanoTime() : 0;
+        BoardPainter finished = back;
+        
+        synchronized (finished)
+        {
+            // back is one frame behind: bring it up to date before drawing
+            // this frame's changes over it.
+            for (Rectangle area : painted)
+            {
+                finished.copyFrom(front, area);
+            }
+            
+            painted.clear();
+            paintChanges();
+        }
+        
+        if (!painted.isEmpty())
+        {
+            back = front;
+            front = finished;
+            
+            for (Rectangle area : painted)
+            {
+                repaint(area);
+            }
+        }
+        
+        if (Metrics.ENABLED)
+        {
+            Metrics.DISPLAY.recordSince(start);
+            Metrics.FRAMES.increment();
+        }
+    }
+    
+    // Method that paints whatever changed since the last frame into back,
+    // noting each rectangle it draws in painted.
+    private void paintChanges()
+    {
+        // A highlighted block that was smashed or undone off the board isn't
+        // drawn.
+        Block highlightedBlock = drawnBlock(game.getHighlightedBlock());
+        boolean onBoard = highlightedBlock != null && highlightedBlock.getRoot() == game.getRoot();
+        Rectangle highlightBounds = onBoard ? viewport.boundsOf(highlightedBlock) : null;
+
+        if (fullRepaint)
+        {
+            back.paintBlocks(game.getRoot(), -viewport.getX(), -viewport.getY(), viewport.getScaledSize());
+            dirtyBlocks.clear();
+            fullRepaint = false;
+            painted.add(new Rectangle(0, 0, viewport.getWidth(), viewport.getHeight()));
+            
+            if (highlightBounds != null && isInView(highlightBounds))
+            {
+                back.paintHighlight(highlightBounds.x, highlightBounds.y, highlightBounds.width);
+            }
+            
+            return;
+        }
+
+        boolean highlightTouched = false;
+        
+        for (Block block : dirtyBlocks)
+        {
+            if (!isRepaintedElsewhere(block))
+            {
+                // The block itself hasn't moved, so only its own rectangle
+                // needs drawing.
+                Rectangle bounds = viewport.boundsOf(block);
+                
+                if (isInView(bounds))
+                {
+                    back.paintBlocks(block, bounds.x, bounds.y, bounds.width);
+                    painted.add(withBorder(bounds));
+                    
+                    if (highlightBounds != null && withBorder(bounds).intersects(withBorder(highlightBounds)))
+                    {
+                        highlightTouched = true;
+                    }
+                }
+            }
+        }
+        
+        dirtyBlocks.clear();
+        
+        if (highlightTouched)
+        {
+            back.paintHighlight(highlightBounds.x, highlightBounds.y, highlightBounds.width);
+            painted.add(withBorder(highlightBounds));
+        }
+    }
+    
+    // Method that checks whether a dirty block gets repainted through one of
+    // its dirty ancestors, or was smashed off the board and needs no paint.
+    private boolean isRepaintedElsewhere(Block block)
+    {
+        Block ancestor = block;
+        
+        while (ancestor.getParent() != null)
+        {
+            ancestor = ancestor.getParent();
+            
+            if (dirtyBlocks.contains(ancestor))
+            {
+                return true;
+            }
+        }
+        
+        return ancestor != game.getRoot();
+    }
+    
+    // Borders are drawn one pixel past the block, hence the + 1.
+    private static Rectangle withBorder(Rectangle bounds)
+    {
+        return new Rectangle(bounds.x, bounds.y, bounds.width + 1, bounds.height + 1);
+    }
+    
+    // Method that checks whether any of a block's bounds, border included,
+    // are in view.
+    private boolean isInView(Rectangle bounds)
+    {
+        return bounds.x < viewport.getWidth() && bounds.y < viewport.getHeight()
+                && bounds.x + bounds.width >= 0 && bounds.y + bounds.height >= 0;
+    }
+    
+    // Method that zooms the view on the render thread.
+    private void zoom(int steps, int centerX, int centerY)
+    {
+        if (viewport.zoom(steps, centerX, centerY))
+        {
+            fullRepaint = true;
+        }
+    }
+    
+    // Method that pans the view on the render thread.
+    private void pan(int dx, int dy)
+    {
+        if (viewport.pan(dx, dy))
+        {
+            fullRepaint = true;
+        }
+    }
+    
+    // Method that returns block, or the ancestor it is drawn as if it is too
+    // small to be drawn itself.
+    private Block drawnBlock(Block block)
+    {
+        int drawnDepth = viewport.getDeepestDrawnLevel();
+        
+        while (block != null && block.getLevel() > drawnDepth)
+        {
+            block = block.getParent();
+        }
+        
+        return block;
+    }
+    
+    @Override
+    public void blockChanged(Block block)
+    {
+        dirtyBlocks.add(drawnBlock(block));
+    }
+    
+    @Override
+    public void highlightChanged(Block block)
+    {
+        dirtyBlocks.add(drawnBlock(block));
     }
     
     private void setUpRenderer()
     {
-        image = new BufferedImage(Block.MAX_SIZE, Block.MAX_SIZE, BufferedImage.TYPE_INT_RGB);
+        int size = game.getSize();
+        front = new BoardPainter(new BufferedImage(size, size, BufferedImage.TYPE_INT_RGB));
+        back = new BoardPainter(new BufferedImage(size, size, BufferedImage.TYPE_INT_RGB));
 
         frame = new JFrame("Blocky");
         frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
@@ -48,8 +387,10 @@ public class GameRenderer extends JComponent implements MouseListener, KeyListen
         topPanel.setLayout(new BoxLayout(topPanel, BoxLayout.LINE_AXIS));
         frame.getContentPane().add(topPanel);
 
-        setPreferredSize(new Dimension(Block.MAX_SIZE, Block.MAX_SIZE));
+        setPreferredSize(new Dimension(size, size));
         addMouseListener(this);
+        addMouseMotionListener(this);
+        addMouseWheelListener(this);
         frame.addKeyListener(this);
         topPanel.add(this);
 
@@ -65,68 +406,18 @@ public class GameRenderer extends JComponent implements MouseListener, KeyListen
         frame.setVisible(true);
     }
     
-    private void paintHighlightedBlock()
+    // Method that queues a batch of journaled events, which the render thread
+    // plays and then draws once, repainting only what the batch changed.
+    public void replay(List<JournalEvent> events)
     {
-        Block highlightedBlock = game.getHighlightedBlock();
-        
-        if (highlightedBlock != null)
-        {
-            // Set up the graphics object and paint the border the highlight color.
-            Graphics graphics = image.getGraphics();
-            graphics.setColor(Block.HIGHLIGHT_COLOR);
-            graphics.drawRect(highlightedBlock.getXCoordinate(), highlightedBlock.getYCoordinate(), 
-                    highlightedBlock.getSize(), highlightedBlock.getSize());
-            graphics.drawRect(highlightedBlock.getXCoordinate() + 1, highlightedBlock.getYCoordinate() + 1, 
-                    highlightedBlock.getSize() - 2, highlightedBlock.getSize() - 2);
-        }
-    }
-    
-    private void paintBlocks(Block block, int xCoordinate, int yCoordinate)
-    {
-        // Set up the graphics object and paint the solid rectangle the appropriate color.
-        Graphics graphics = image.getGraphics();
-        graphics.setColor(block.getColor());
-        graphics.fillRect(xCoordinate, yCoordinate, block.getSize(), block.getSize());
-        
-        // Set the border color.
-        if (block.isHighlighted())
-        {
-            
-            game.getHighlightedBlock().setXCoordinate(xCoordinate);
-            game.getHighlightedBlock().setYCoordinate(yCoordinate);
-        }
-        else
-        {
-            graphics.setColor(Color.BLACK);
-            graphics.drawRect(xCoordinate, yCoordinate, block.getSize(), block.getSize());
-            graphics.drawRect(xCoordinate + 1, yCoordinate + 1, block.getSize() - 2, block.getSize() - 2);
-        }
-        
-        List<Block> children = block.getChildren();
-        
-        if (!children.isEmpty())
-        {
-            Block childBlock;
-            
-            // Upper left.
-            childBlock = children.get(0);
-            paintBlocks(childBlock, xCoordinate, yCoordinate);
-            
-            // Upper right.
-            childBlock = children.get(1);
-            paintBlocks(childBlock, xCoordinate + childBlock.getSize(), yCoordinate);
-            
-            // Lower left.
-            childBlock = children.get(2);
-            paintBlocks(childBlock, xCoordinate, yCoordinate + childBlock.getSize());
-            
-            // Lower right.
-            childBlock = children.get(3);
-            paintBlocks(childBlock, xCoordinate + childBlock.getSize(), yCoordinate + childBlock.getSize());
-        }
+        submit(() -> game.replay(events));
     }
     
-    private void highlightBlock(Block block, int row, int column)
+    // Method that finds the leaf block under (row, column) of block, with the
+    // position relative to block's upper-left corner, by walking down the
+    // tree.  Returns null if there is none.  Game.blockAt answers the same
+    // question from the leaf index.
+    static Block findBlockToHighlight(Block block, int row, int column)
     {
         List<Block> children;
         Block child;
@@ -148,7 +439,7 @@ public class GameRenderer extends JComponent implements MouseListener, KeyListen
                 // Check the child's children if applicable
                 if(!child.getChildren().isEmpty())
                 {
-                    highlightBlock(child, row, column);
+                    blockToHighlight = findBlockToHighlight(child, row, column);
                 }
                 // The child doesn't have children, therefore the child should be highlighted
                 else
@@ -158,7 +449,7 @@ public class GameRenderer extends JComponent implements MouseListener, KeyListen
             }
             
             // Second child
-            else if(row < halfBlockSize && column > halfBlockSize)
+            else if(row < halfBlockSize && column >= halfBlockSize)
             {
                 child = children.get(1);
                 
@@ -169,7 +460,7 @@ public class GameRenderer extends JComponent implements MouseListener, KeyListen
                     // column is larger than half the block. Since we are narrowing
                     // the scope down, we also want the rows and columns to reflect that.
                     column -= halfBlockSize;
-                    highlightBlock(child, row, column);
+                    blockToHighlight = findBlockToHighlight(child, row, column);
                 }
                 // The child doesn't have children, therefore the child should be highlighted
                 else
@@ -179,7 +470,7 @@ public class GameRenderer extends JComponent implements MouseListener, KeyListen
             }
             
             // Third child
-            else if(row > halfBlockSize && column < halfBlockSize)
+            else if(row >= halfBlockSize && column < halfBlockSize)
             {
                 child = children.get(2);
                 
@@ -190,7 +481,7 @@ public class GameRenderer extends JComponent implements MouseListener, KeyListen
                     // row is larger than half the block. Since we are narrowing
                     // the scope down, we also want the rows and columns to reflect that.
                     row -= halfBlockSize;
-                    highlightBlock(child, row, column);
+                    blockToHighlight = findBlockToHighlight(child, row, column);
                 }
                 // The child doesn't have children, therefore the child should be highlighted
                 else
@@ -200,7 +491,7 @@ public class GameRenderer extends JComponent implements MouseListener, KeyListen
             }
             
             // Fourth child
-            else if(row > halfBlockSize && column > halfBlockSize)
+            else if(row >= halfBlockSize && column >= halfBlockSize)
             {
                 child = children.get(3);
                 
@@ -212,7 +503,7 @@ public class GameRenderer extends JComponent implements MouseListener, KeyListen
                     // the scope down, we also want the rows and columns to reflect that.
                     row -= halfBlockSize;
                     column -= halfBlockSize;
-                    highlightBlock(child, row, column);
+                    blockToHighlight = findBlockToHighlight(child, row, column);
                 }
                 // The child doesn't have children, therefore the child should be highlighted
                 else
@@ -222,6 +513,26 @@ public class GameRenderer extends JComponent implements MouseListener, KeyListen
             }
         }
         
+        return blockToHighlight;
+    }
+    
+    private void highlightBlock(int row, int column)
+    {
+        long start = Metrics.ENABLED ? System.nanoTime() : 0;
+        
+        // The leaf index answers without walking the tree, but only knows the
+        // board at its own size.
+        Block blockToHighlight;
+        
+        if (viewport.getZoom() == 0)
+        {
+            blockToHighlight = game.blockAt(column, row, game.getMaxDepth());
+        }
+        else
+        {
+            blockToHighlight = viewport.blockAt(game.getRoot(), column, row);
+        }
+
         // If true, a block was found to highlight
         if(blockToHighlight != null)
         {
@@ -234,23 +545,39 @@ public class GameRenderer extends JComponent implements MouseListener, KeyListen
             blockToHighlight.setHighlighted(true);
             game.setHighlightedBlock(blockToHighlight);
         }
+        
+        if (Metrics.ENABLED)
+        {
+            Metrics.HIGHLIGHT_BLOCK.recordSince(start);
+        }
     }
     
     private void highlightBlock(MouseEvent e)
     {
         int row = e.getY();
         int column = e.getX();
-        highlightBlock(game.getRoot(), row, column);
+        highlightBlock(row, column);
     }
   
     @Override
     public void paintComponent(Graphics g)
     {
-        g.drawImage(image, 0, 0, null);
+        BoardPainter shown = front;
+        
+        synchronized (shown)
+        {
+            g.drawImage(shown.getImage(), 0, 0, null);
+        }
     }
 
     @Override
     public void keyPressed(KeyEvent e)
+    {
+        submit(() -> applyKey(e));
+    }
+    
+    // Method that plays a key press on the render thread.
+    private void applyKey(KeyEvent e)
     {
         Block highlightedBlock = game.getHighlightedBlock();
         
@@ -281,49 +608,117 @@ public class GameRenderer extends JComponent implements MouseListener, KeyListen
             // Swap horizontally
             if(e.getKeyCode() == KeyEvent.VK_H)
             {
-                highlightedBlock.swap(true);
+                game.applyMove(Move.of(highlightedBlock, Move.Type.SWAP_HORIZONTAL));
             }
             
             // Swap vertically
             if(e.getKeyCode() == KeyEvent.VK_V)
             {
-                highlightedBlock.swap(false);
+                game.applyMove(Move.of(highlightedBlock, Move.Type.SWAP_VERTICAL));
             }
             
             // Smash
             if(e.getKeyCode() == KeyEvent.VK_S)
             {
-                highlightedBlock.smash(game);
+                game.applyMove(Move.of(highlightedBlock, Move.Type.SMASH));
             }
             
             // Rotate counterclockwise
             if(e.getKeyCode() == KeyEvent.VK_LEFT)
             {
-                highlightedBlock.rotate(false);
+                game.applyMove(Move.of(highlightedBlock, Move.Type.ROTATE_COUNTERCLOCKWISE));
             }
             
             // Rotate clockwise
             if(e.getKeyCode() == KeyEvent.VK_RIGHT)
             {
-                highlightedBlock.rotate(true);
+                game.applyMove(Move.of(highlightedBlock, Move.Type.ROTATE_CLOCKWISE));
             }
         }
         
-        display();
+        // Zoom in or out around the middle of the view
+        if(e.getKeyCode() == KeyEvent.VK_EQUALS || e.getKeyCode() == KeyEvent.VK_PLUS || e.getKeyCode() == KeyEvent.VK_ADD)
+        {
+            zoom(1, viewport.getWidth() / 2, viewport.getHeight() / 2);
+        }
+        
+        if(e.getKeyCode() == KeyEvent.VK_MINUS || e.getKeyCode() == KeyEvent.VK_SUBTRACT)
+        {
+            zoom(-1, viewport.getWidth() / 2, viewport.getHeight() / 2);
+        }
+        
+        // Show the whole board again
+        if(e.getKeyCode() == KeyEvent.VK_0 && viewport.getZoom() != 0)
+        {
+            viewport.reset();
+            fullRepaint = true;
+        }
+        
+        // Undo the last move
+        if(e.getKeyCode() == KeyEvent.VK_Z)
+        {
+            game.undo();
+        }
+        
+        // Redo the last undone move
+        if(e.getKeyCode() == KeyEvent.VK_Y)
+        {
+            game.redo();
+        }
+        
+        // Let the computer players take their turns
+        if(e.getKeyCode() == KeyEvent.VK_C)
+        {
+            for(Player player : game.getPlayers())
+            {
+                Move move = player.chooseMove(game);
+                
+                if(move != null)
+                {
+                    game.applyMove(move);
+                }
+            }
+        }
     }
-
+    
     @Override
     public void mouseClicked(MouseEvent e)
     {
-        highlightBlock(e);
-        display();
+        submit(() -> highlightBlock(e));
     }
 
     @Override
     public void mousePressed(MouseEvent e)
+    {
+        dragX = e.getX();
+        dragY = e.getY();
+    }
+    
+    @Override
+    public void mouseDragged(MouseEvent e)
+    {
+        int dx = e.getX() - dragX;
+        int dy = e.getY() - dragY;
+        dragX = e.getX();
+        dragY = e.getY();
+        submit(() -> pan(dx, dy));
+    }
+    
+    @Override
+    public void mouseMoved(MouseEvent e)
     {
         
     }
+    
+    @Override
+    public void mouseWheelMoved(MouseWheelEvent e)
+    {
+        // Rolling the wheel away from the user zooms in.
+        int steps = -e.getWheelRotation();
+        int x = e.getX();
+        int y = e.getY();
+        submit(() -> zoom(steps, x, y));
+    }
 
     @Override
     public void mouseReleased(MouseEvent e)
@@ -0,0 +1,533 @@
+package blocky;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+// Hosts many games at once for clients on the same machine, over a small
+// binary protocol on a localhost socket.  GameClient speaks the protocol and
+// LoadGenerator drives a server with it.
+//
+// Each connection is served on a thread of its own, a virtual one where the
+// JDK has them, and may play any number of sessions.  A session's game
+// is only ever touched by the session's own serial executor, which runs its
+// requests one at a time, in the order they came in, on a shared pool with
+// one thread per core.  Sessions never wait on each other, and there is no
+// lock around the session table or the games.
+//
+// Every request is an opcode byte followed by its arguments, and gets back a
+// status byte followed, when the status is OK, by its results:
+//
+//     OPEN   seed (long), depth (byte)    -> session (int)
+//     MOVE   session (int), move type (byte), path as JournalEvent writes it
+//                                         -> the board's Zobrist hash (long)
+//     BOARD  session (int)                -> depth (int), size (int),
+//                                            length (int), BoardCodec bytes
+//     STATS  session (int)                -> moves (long), total nanoseconds
+//                                            (long), max nanoseconds (long)
+//     SERVER_STATS                        -> sessions (int), moves (long),
+//                                            mean, p50, p90, p99 and max
+//                                            nanoseconds (long each)
+//     CLOSE  session (int)                -> nothing
+//
+// A move's latency runs from when the server has read the request to when
+// the move is on the board, so it includes the time spent queued behind the
+// session's earlier requests.  Each session keeps its count, total and
+// maximum; the server keeps a histogram over all of them.
+//
+// Started with: java blocky.Blocky --server [--port N] [--max-sessions N]
+//                                           [--max-depth N]
+public class GameServer implements Closeable
+{
+    final static byte OPEN = 1;
+    final static byte MOVE = 2;
+    final static byte BOARD = 3;
+    final static byte STATS = 4;
+    final static byte SERVER_STATS = 5;
+    final static byte CLOSE = 6;
+    
+    final static byte OK = 0;
+    final static byte NO_SESSION = 1;
+    
+    // The move's path doesn't lead to a block on the board.
+    final static byte NO_BLOCK = 2;
+    
+    // OPEN with max sessions already open.
+    final static byte FULL = 3;
+    
+    // A request that was read in full but can't be served, such as a depth
+    // out of range, an unknown move type or a move the game fails on.  The
+    // connection and its other sessions carry on.
+    final static byte BAD_REQUEST = 4;
+    
+    public final static int DEFAULT_PORT = 7341;
+    public final static int DEFAULT_MAX_SESSIONS = 10000;
+    public final static int DEFAULT_MAX_DEPTH = 8;
+    
+    // Requests a session runs before letting other sessions have its thread.
+    private final static int DRAIN_BATCH = 32;
+    
+    private final static Move.Type[] TYPES = Move.Type.values();
+    
+    private final ServerSocket serverSocket;
+    private final int maxSessions;
+    private final int maxDepth;
+    
+    //connections:
+    //    Serves each connection in a task of its own; connections spend most
+    //    of their time waiting on the socket.
+    //workers:
+    //    The threads sessions play their moves on.
+    private final ExecutorService connections;
+    private final ForkJoinPool workers;
+    
+    private final Map<Integer, Session> sessions = new ConcurrentHashMap<>();
+    private final AtomicInteger nextSessionId = new AtomicInteger();
+    private final LatencyHistogram latency = new LatencyHistogram("serverMove");
+    private final Thread acceptor;
+    
+    // Method that starts a server on the loopback address.  Port 0 picks a
+    // free port, which getPort returns.
+    public static GameServer start(int port, int maxSessions, int maxDepth) throws IOException
+    {
+        GameServer server = new GameServer(new ServerSocket(port, 0, InetAddress.getLoopbackAddress()), maxSessions, maxDepth);
+        server.acceptor.start();
+        return server;
+    }
+    
+    private GameServer(ServerSocket inServerSocket, int inMaxSessions, int inMaxDepth)
+    {
+        serverSocket = inServerSocket;
+        maxSessions = inMaxSessions;
+        maxDepth = inMaxDepth;
+        connections = GameExecutors.newBlockingTaskExecutor();
+        
+        // Async mode runs tasks first in, first out, which suits sessions
+        // queued up behind each other better than the default stack.
+        workers = new ForkJoinPool(Runtime.getRuntime().availableProcessors(),
+                ForkJoinPool.defaultForkJoinWorkerThreadFactory, null, true);
+        
+        acceptor = new Thread(this::acceptConnections, "GameServer " + serverSocket.getLocalPort());
+        acceptor.setDaemon(true);
+    }
+    
+    private void acceptConnections()
+    {
+        while (!serverSocket.isClosed())
+        {
+            try
+            {
+                Socket socket = serverSocket.accept();
+                socket.setTcpNoDelay(true);
+                connections.execute(() -> serve(socket));
+            }
+            catch (IOException e)
+            {
+                // Closing the server socket ends the loop; anything else only
+                // loses the one connection.
+            }
+        }
+    }
+    
+    // Method that answers a connection's requests until it closes.  Responses
+    // are flushed once no more requests are waiting, so a client that sends
+    // several at a time gets the answers back together.
+    private void serve(Socket socket)
+    {
+        try (socket;
+                DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream())))
+        {
+            int opcode;
+            
+            while ((opcode = in.read()) >= 0)
+            {
+                try
+                {
+                    handle(opcode, in, out);
+                }
+                catch (CompletionException e)
+                {
+                    // A session's task failed before anything was written for
+                    // the request, so it can still be answered.
+                    System.err.println("Session request failed: " + e.getCause());
+                    out.writeByte(BAD_REQUEST);
+                }
+
+                if (in.available() == 0)
+                {
+                    out.flush();
+                }
+            }
+        }
+        catch (IOException e)
+        {
+            // The client went away or sent something unreadable; either way
+            // there is no one left to answer.
+        }
+    }
+    
+    private void handle(int opcode, DataInputStream in, DataOutputStream out) throws IOException
+    {
+        switch (opcode)
+        {
+            case OPEN:
+                open(in.readLong(), in.readUnsignedByte(), out);
+                break;
+            case MOVE:
+                move(in.readInt(), in.readUnsignedByte(), JournalEvent.readPath(in), out);
+                break;
+            case BOARD:
+                board(in.readInt(), out);
+                break;
+            case STATS:
+                stats(in.readInt(), out);
+                break;
+            case SERVER_STATS:
+                serverStats(out);
+                break;
+            case CLOSE:
+                out.writeByte(sessions.remove(in.readInt()) == null ? NO_SESSION : OK);
+                break;
+            default:
+                // The rest of the stream can't be made sense of.
+                throw new IOException("Unknown opcode " + opcode);
+        }
+    }
+    
+    private void open(long seed, int depth, DataOutputStream out) throws IOException
+    {
+        if (depth < 1 || depth > maxDepth)
+        {
+            out.writeByte(BAD_REQUEST);
+            return;
+        }
+        
+        // Only a guard against running out of memory, so a few sessions over
+        // while others are opening at the same time don't matter.
+        if (sessions.size() >= maxSessions)
+        {
+            out.writeByte(FULL);
+            return;
+        }
+        
+        int id = nextSessionId.getAndIncrement();
+        sessions.put(id, new Session(new Game(seed, depth, Block.DEFAULT_SIZE)));
+        out.writeByte(OK);
+        out.writeInt(id);
+    }
+    
+    private void move(int id, int typeOrdinal, int[] path, DataOutputStream out) throws IOException
+    {
+        Session session = sessions.get(id);
+        
+        if (session == null)
+        {
+            out.writeByte(NO_SESSION);
+            return;
+        }
+        
+        if (typeOrdinal >= TYPES.length || path == null)
+        {
+            out.writeByte(BAD_REQUEST);
+            return;
+        }
+        
+        Move move = new Move(path, TYPES[typeOrdinal]);
+        long start = System.nanoTime();
+        Long hash = run(session, () -> session.play(move, start));
+        
+        if (hash == null)
+        {
+            out.writeByte(NO_BLOCK);
+            return;
+        }
+        
+        out.writeByte(OK);
+        out.writeLong(hash);
+    }
+    
+    private void board(int id, DataOutputStream out) throws IOException
+    {
+        Session session = sessions.get(id);
+        
+        if (session == null)
+        {
+            out.writeByte(NO_SESSION);
+            return;
+        }
+        
+        byte[] board = run(session, () -> BoardCodec.encode(session.game.getRoot()));
+        out.writeByte(OK);
+        out.writeInt(session.game.getMaxDepth());
+        out.writeInt(session.game.getSize());
+        out.writeInt(board.length);
+        out.write(board);
+    }
+    
+    private void stats(int id, DataOutputStream out) throws IOException
+    {
+        Session session = sessions.get(id);
+        
+        if (session == null)
+        {
+            out.writeByte(NO_SESSION);
+            return;
+        }
+        
+        SessionStats stats = run(session, session::getStats);
+        out.writeByte(OK);
+        out.writeLong(stats.moves);
+        out.writeLong(stats.totalNanos);
+        out.writeLong(stats.maxNanos);
+    }
+    
+    private void serverStats(DataOutputStream out) throws IOException
+    {
+        ServerStats stats = getStats();
+        out.writeByte(OK);
+        out.writeInt(stats.sessions);
+        out.writeLong(stats.moves);
+        out.writeLong(stats.meanNanos);
+        out.writeLong(stats.p50Nanos);
+        out.writeLong(stats.p90Nanos);
+        out.writeLong(stats.p99Nanos);
+        out.writeLong(stats.maxNanos);
+    }
+    
+    // Method that runs task on session's executor and waits for its result.
+    // If the task throws, a CompletionException carries the failure to serve.
+    private static <T> T run(Session session, Supplier<T> task)
+    {
+        return CompletableFuture.supplyAsync(task, session).join();
+    }
+    
+    // Method that returns the latency over all sessions' moves so far.
+    public ServerStats getStats()
+    {
+        return new ServerStats(sessions.size(), latency.getCount(), (long) latency.getMean(),
+                latency.getValueAtPercentile(50), latency.getValueAtPercentile(90),
+                latency.getValueAtPercentile(99), latency.getMax());
+    }
+    
+    public LatencyHistogram getLatency()
+    {
+        return latency;
+    }
+    
+    public int getSessionCount()
+    {
+        return sessions.size();
+    }
+    
+    public int getPort()
+    {
+        return serverSocket.getLocalPort();
+    }
+    
+    // Method that stops taking connections and drops every session.
+    // Connections already open are closed as their tasks end.
+    @Override
+    public void close() throws IOException
+    {
+        serverSocket.close();
+        connections.shutdownNow();
+        workers.shutdown();
+        sessions.clear();
+    }
+    
+    // One game and the executor that serves it.  Tasks given to execute run
+    // one at a time on the server's workers, in the order they were given;
+    // pending counts the tasks queued or running, so only the task that
+    // takes it from 0 has to start a drain.
+    private class Session implements Executor
+    {
+        final Game game;
+        
+        private final Queue<Runnable> queue = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger pending = new AtomicInteger();
+        
+        //moves, totalNanos, maxNanos:
+        //    This session's move latencies.  Only touched by its own tasks.
+        private long moves;
+        private long totalNanos;
+        private long maxNanos;
+        
+        Session(Game inGame)
+        {
+            game = inGame;
+        }
+        
+        @Override
+        public void execute(Runnable task)
+        {
+            queue.add(task);
+            
+            if (pending.getAndIncrement() == 0)
+            {
+                workers.execute(this::drain);
+            }
+        }
+        
+        // Method that runs queued tasks, handing the thread back after
+        // DRAIN_BATCH of them so a busy session can't hold a worker forever.
+        private void drain()
+        {
+            for (int i = 0; i < DRAIN_BATCH; i++)
+            {
+                // The tasks are CompletableFuture's, which catch their own
+                // exceptions.
+                queue.poll().run();
+                
+                if (pending.decrementAndGet() == 0)
+                {
+                    return;
+                }
+            }
+            
+            workers.execute(this::drain);
+        }
+        
+        // Method that plays move and returns the board's new hash, or null if
+        // the board has no block at the move's path.  start is when the
+        // request was read.
+        Long play(Move move, long start)
+        {
+            if (game.applyMove(move) == null)
+            {
+                return null;
+            }
+            
+            long nanos = System.nanoTime() - start;
+            moves++;
+            totalNanos += nanos;
+            maxNanos = Math.max(maxNanos, nanos);
+            latency.record(nanos);
+            return game.getRoot().getZobristHash();
+        }
+        
+        SessionStats getStats()
+        {
+            return new SessionStats(moves, totalNanos, maxNanos);
+        }
+    }
+    
+    // Latency of one session's moves.
+    public static class SessionStats
+    {
+        public final long moves;
+        public final long totalNanos;
+        public final long maxNanos;
+        
+        SessionStats(long inMoves, long inTotalNanos, long inMaxNanos)
+        {
+            moves = inMoves;
+            totalNanos = inTotalNanos;
+            maxNanos = inMaxNanos;
+        }
+        
+        public double getMeanNanos()
+        {
+            return moves == 0 ? 0 : (double) totalNanos / moves;
+        }
+        
+        @Override
+        public String toString()
+        {
+            return String.format("%d moves, mean %.1f us, max %d us", moves, getMeanNanos() / 1000, maxNanos / 1000);
+        }
+    }
+    
+    // Latency of every session's moves together.  The percentiles are to
+    // within LatencyHistogram's precision.
+    public static class ServerStats
+    {
+        public final int sessions;
+        public final long moves;
+        public final long meanNanos;
+        public final long p50Nanos;
+        public final long p90Nanos;
+        public final long p99Nanos;
+        public final long maxNanos;
+        
+        ServerStats(int inSessions, long inMoves, long inMeanNanos, long inP50Nanos, long inP90Nanos,
+                long inP99Nanos, long inMaxNanos)
+        {
+            sessions = inSessions;
+            moves = inMoves;
+            meanNanos = inMeanNanos;
+            p50Nanos = inP50Nanos;
+            p90Nanos = inP90Nanos;
+            p99Nanos = inP99Nanos;
+            maxNanos = inMaxNanos;
+        }
+        
+        @Override
+        public String toString()
+        {
+            return String.format("%d sessions, %d moves, latency (us): mean %d  p50 %d  p90 %d  p99 %d  max %d",
+                    sessions, moves, meanNanos / 1000, p50Nanos / 1000, p90Nanos / 1000, p99Nanos / 1000, maxNanos / 1000);
+        }
+    }
+    
+    public static void main(String[] args) throws IOException, InterruptedException
+    {
+        System.setProperty("java.awt.headless", "true");
+        
+        int port = DEFAULT_PORT;
+        int maxSessions = DEFAULT_MAX_SESSIONS;
+        int maxDepth = DEFAULT_MAX_DEPTH;
+        
+        for (int i = 0; i + 1 < args.length; i += 2)
+        {
+            switch (args[i])
+            {
+                case "--port":
+                    port = Integer.parseInt(args[i + 1]);
+                    break;
+                case "--max-sessions":
+                    maxSessions = Integer.parseInt(args[i + 1]);
+                    break;
+                case "--max-depth":
+                    maxDepth = Integer.parseInt(args[i + 1]);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+        
+        GameServer server = start(port, maxSessions, maxDepth);
+        System.out.println("Serving games on localhost:" + server.getPort());
+        long reported = 0;
+        
+        // Reports the latency every few seconds while moves are coming in.
+        while (true)
+        {
+            TimeUnit.SECONDS.sleep(5);
+            ServerStats stats = server.getStats();
+            
+            if (stats.moves != reported)
+            {
+                System.out.println(stats);
+                reported = stats.moves;
+            }
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package blocky;
+import java.awt.Color;
+import java.util.function.ToIntFunction;
+
+// A player's goal: a way of scoring the board for one target color.
+// Goals only look at the flattened board, never at the Block tree.
+public abstract class Goal
+{
+    //colorIndex:
+    //    The target color, as an index into Block.COLORS.
+    protected final int colorIndex;
+    
+    public Goal(Color color)
+    {
+        colorIndex = Block.colorIndex(color);
+        
+        if (colorIndex < 0)
+        {
+            throw new IllegalArgumentException("Goal color must be one of Block.COLORS");
+        }
+    }
+    
+    // Method that scores the game's current board.
+    public int score(Game game)
+    {
+        return score(game.getGrid());
+    }
+    
+    // Method that scores a kept-up-to-date grid.  Goals that can reuse work
+    // from the last time they saw the grid override this.
+    public int score(BoardGrid grid)
+    {
+        return score(grid.getCells(), grid.getSide());
+    }
+    
+    // Method that scores a flattened board from scratch.
+    public abstract int score(byte[] cells, int side);
+    
+    // Method that returns a scorer for flattened boards side cells across,
+    // for callers scoring many boards in a row.  Goals that need working
+    // memory override this to allocate it once.  A scorer is not
+    // thread-safe, unlike the goal.
+    public ToIntFunction<byte[]> newScorer(int side)
+    {
+        return cells -> score(cells, side);
+    }
+
+    public abstract String getDescription();
+    
+    public Color getColor()
+    {
+        return Block.COLORS[colorIndex];
+    }
+    
+    public int getColorIndex()
+    {
+        return colorIndex;
+    }
+}
@@ -0,0 +1,268 @@
+package blocky;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntFunction;
+
+// Plays many independent games at once without opening a window, for load
+// testing and for generating training data.  Each game runs as its own task,
+// on a virtual thread where the JDK has them.  Nothing on the game path
+// touches the AWT toolkit; Block only uses java.awt.Color as constants.
+//
+// Started with: java blocky.Blocky --headless [--games N] [--moves N]
+//                                             [--seed N] [--player random|computer|mcts]
+//                                             [--depth N] [--budget MILLIS]
+//
+// --budget is the time an mcts player may think about each move.
+public class HeadlessRunner
+{
+    // Time recorded for a game that threw instead of finishing.
+    private final static long FAILED = -1;
+    
+    private final int games;
+    private final int movesPerGame;
+    
+    //maxDepth:
+    //    The depth of every game's board.
+    private final int maxDepth;
+
+    //seed:
+    //    Seeds the games' boards, so a run can be repeated exactly.
+    private final long seed;
+    
+    //players:
+    //    Makes the player that drives game i.  Called once per game, so
+    //    players need not be thread-safe.
+    private final IntFunction<Player> players;
+    
+    public HeadlessRunner(int inGames, int inMovesPerGame, long inSeed, IntFunction<Player> inPlayers)
+    {
+        this(inGames, inMovesPerGame, inSeed, inPlayers, Block.DEFAULT_MAX_DEPTH);
+    }
+    
+    public HeadlessRunner(int inGames, int inMovesPerGame, long inSeed, IntFunction<Player> inPlayers, int inMaxDepth)
+    {
+        games = inGames;
+        movesPerGame = inMovesPerGame;
+        maxDepth = inMaxDepth;
+        seed = inSeed;
+        players = inPlayers;
+    }
+    
+    // Method that plays every game and waits for them to finish.
+    public Report run() throws InterruptedException
+    {
+        long[] gameNanos = new long[games];
+        long[][] moveNanos = new long[games][];
+        LongAdder movesPlayed = new LongAdder();
+        LongAdder totalScore = new LongAdder();
+        AtomicInteger failures = new AtomicInteger();
+        
+        long start = System.nanoTime();
+        ExecutorService executor = GameExecutors.newPerTaskExecutor();
+        SplittableRandom seeds = new SplittableRandom(seed);
+        
+        for (int i = 0; i < games; i++)
+        {
+            int index = i;
+            long gameSeed = seeds.nextLong();
+            executor.execute(() ->
+            {
+                try
+                {
+                    playGame(index, gameSeed, gameNanos, moveNanos, movesPlayed, totalScore);
+                }
+                catch (RuntimeException e)
+                {
+                    // The first failure is shown in full; the rest are only
+                    // counted, as they are usually the same bug.
+                    if (failures.incrementAndGet() == 1)
+                    {
+                        System.err.println("Game " + index + " (seed " + gameSeed + ") failed:");
+                        e.printStackTrace();
+                    }
+                    
+                    gameNanos[index] = FAILED;
+                    moveNanos[index] = new long[0];
+                }
+            });
+        }
+        
+        executor.shutdown();
+        executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        long elapsed = System.nanoTime() - start;
+        
+        // Failed games didn't finish, so they are left out of the latencies.
+        long[] finishedGameNanos = Arrays.stream(gameNanos).filter(nanos -> nanos != FAILED).toArray();
+        long[] allMoveNanos = Arrays.stream(moveNanos).flatMapToLong(Arrays::stream).toArray();
+        return new Report(games, movesPlayed.sum(), failures.get(), totalScore.sum(), elapsed, finishedGameNanos, allMoveNanos);
+    }
+    
+    private void playGame(int index, long gameSeed, long[] gameNanos, long[][] moveNanos, LongAdder movesPlayed, LongAdder totalScore)
+    {
+        long gameStart = System.nanoTime();
+        Game game = new Game(gameSeed, maxDepth, Block.DEFAULT_SIZE);
+        Player player = players.apply(index);
+        long[] latencies = new long[movesPerGame];
+        int played = 0;
+        
+        while (played < movesPerGame)
+        {
+            long moveStart = System.nanoTime();
+            Move move = player.chooseMove(game);
+            
+            if (move == null)
+            {
+                break;
+            }
+            
+            game.applyMove(move);
+            latencies[played++] = System.nanoTime() - moveStart;
+        }
+        
+        totalScore.add(player.getScore(game));
+        movesPlayed.add(played);
+        moveNanos[index] = Arrays.copyOf(latencies, played);
+        gameNanos[index] = System.nanoTime() - gameStart;
+    }
+    
+    // Throughput and latency of one run.
+    public static class Report
+    {
+        public final int games;
+        public final long moves;
+        public final int failures;
+        public final long totalScore;
+        public final long elapsedNanos;
+        private final long[] sortedGameNanos;
+        private final long[] sortedMoveNanos;
+        
+        Report(int inGames, long inMoves, int inFailures, long inTotalScore, long inElapsedNanos,
+                long[] gameNanos, long[] moveNanos)
+        {
+            games = inGames;
+            moves = inMoves;
+            failures = inFailures;
+            totalScore = inTotalScore;
+            elapsedNanos = inElapsedNanos;
+            sortedGameNanos = gameNanos.clone();
+            sortedMoveNanos = moveNanos.clone();
+            Arrays.sort(sortedGameNanos);
+            Arrays.sort(sortedMoveNanos);
+        }
+        
+        // Method that returns the rate of games that finished.
+        public double getGamesPerSecond()
+        {
+            return (games - failures) * 1e9 / elapsedNanos;
+        }
+        
+        public double getMovesPerSecond()
+        {
+            return moves * 1e9 / elapsedNanos;
+        }
+        
+        // Method that returns the game latency at a percentile (0-100).
+        public long getGamePercentile(double percentile)
+        {
+            return percentileOf(sortedGameNanos, percentile);
+        }
+        
+        public long getMovePercentile(double percentile)
+        {
+            return percentileOf(sortedMoveNanos, percentile);
+        }
+        
+        private static long percentileOf(long[] sorted, double percentile)
+        {
+            if (sorted.length == 0)
+            {
+                return 0;
+            }
+            
+            int index = (int) Math.ceil(percentile / 100 * sorted.length) - 1;
+            return sorted[Math.max(0, Math.min(index, sorted.length - 1))];
+        }
+        
+        @Override
+        public String toString()
+        {
+            return String.format("%d games, %d moves, %d failed in %.2f s%n"
+                    + "throughput: %.1f games/s, %.1f moves/s%n"
+                    + "game latency (us): p50 %d  p90 %d  p99 %d  max %d%n"
+                    + "move latency (us): p50 %d  p90 %d  p99 %d  max %d%n"
+                    + "mean final score: %.2f",
+                    games, moves, failures, elapsedNanos / 1e9,
+                    getGamesPerSecond(), getMovesPerSecond(),
+                    getGamePercentile(50) / 1000, getGamePercentile(90) / 1000,
+                    getGamePercentile(99) / 1000, getGamePercentile(100) / 1000,
+                    getMovePercentile(50) / 1000, getMovePercentile(90) / 1000,
+                    getMovePercentile(99) / 1000, getMovePercentile(100) / 1000,
+                    games == failures ? 0.0 : totalScore / (double) (games - failures));
+        }
+    }
+    
+    public static void main(String[] args) throws InterruptedException
+    {
+        System.setProperty("java.awt.headless", "true");
+        
+        int games = 1000;
+        int moves = 50;
+        long seed = System.nanoTime();
+        String playerType = "random";
+        int depth = Block.DEFAULT_MAX_DEPTH;
+        long budget = MctsPlayer.DEFAULT_BUDGET_MILLIS;
+
+        for (int i = 0; i + 1 < args.length; i += 2)
+        {
+            switch (args[i])
+            {
+                case "--games":
+                    games = Integer.parseInt(args[i + 1]);
+                    break;
+                case "--moves":
+                    moves = Integer.parseInt(args[i + 1]);
+                    break;
+                case "--seed":
+                    seed = Long.parseLong(args[i + 1]);
+                    break;
+                case "--player":
+                    playerType = args[i + 1];
+                    break;
+                case "--depth":
+                    depth = Integer.parseInt(args[i + 1]);
+                    break;
+                case "--budget":
+                    budget = Long.parseLong(args[i + 1]);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+        
+        long baseSeed = seed;
+        long budgetMillis = budget;
+        String type = playerType;
+        IntFunction<Player> players = index ->
+        {
+            Goal goal = new BlobGoal(Block.COLORS[index % Block.COLORS.length]);
+            
+            switch (type)
+            {
+                case "computer":
+                    return new ComputerPlayer("computer-" + index, goal, baseSeed + index);
+                case "mcts":
+                    return new MctsPlayer("mcts-" + index, goal, budgetMillis, baseSeed + index);
+                default:
+                    return new RandomPlayer("random-" + index, goal, baseSeed + index);
+            }
+        };
+        
+        System.out.println("Running " + games + " games of " + moves + " moves on "
+                + (GameExecutors.hasVirtualThreads() ? "virtual threads" : "a platform thread pool"));
+        System.out.println(new HeadlessRunner(games, moves, seed, players, depth).run());
+    }
+}
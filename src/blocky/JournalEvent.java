@@ -0,0 +1,236 @@
+package blocky;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+// One entry in a game journal: a change to the board or to the selection,
+// with the block it acts on given as a path of child indexes from the root.
+// A smash carries the seed it drew its children from, so replaying it gives
+// the same children.  Undoing a smash can't be expressed as a move, so it is
+// journaled as a RESTORE carrying the BoardCodec encoding of the subtree
+// that came back.
+public class JournalEvent
+{
+    public enum Kind
+    {
+        SWAP_HORIZONTAL, SWAP_VERTICAL, ROTATE_CLOCKWISE, ROTATE_COUNTERCLOCKWISE, SMASH, SELECT, RESTORE
+    }
+    
+    // Level written for a SELECT that clears the selection.
+    private final static int NO_PATH = 0xFF;
+    
+    private final Kind kind;
+    
+    //path:
+    //    The child index taken at each level from the root, or null for a
+    //    SELECT that clears the selection.
+    private final int[] path;
+    
+    //seed:
+    //    The seed a SMASH drew its children from, otherwise 0.
+    private final long seed;
+    
+    //subtree:
+    //    The encoded subtree a RESTORE puts back, otherwise null.
+    private final byte[] subtree;
+    
+    private JournalEvent(Kind inKind, int[] inPath, long inSeed, byte[] inSubtree)
+    {
+        kind = inKind;
+        path = inPath;
+        seed = inSeed;
+        subtree = inSubtree;
+    }
+    
+    // Method that journals a move; seed is only used by a smash.
+    public static JournalEvent move(Move move, long seed)
+    {
+        Kind kind = Kind.valueOf(move.getType().name());
+        return new JournalEvent(kind, move.getPath(), kind == Kind.SMASH ? seed : 0, null);
+    }
+    
+    // Method that journals selecting block, or clearing the selection when
+    // block is null.
+    public static JournalEvent select(Block block)
+    {
+        return new JournalEvent(Kind.SELECT, block == null ? null : Move.pathOf(block), 0, null);
+    }
+    
+    // Method that journals block's subtree being put back as it is now.
+    public static JournalEvent restore(Block block)
+    {
+        return new JournalEvent(Kind.RESTORE, Move.pathOf(block), 0, BoardCodec.encode(block));
+    }
+    
+    // Method that plays this event on game's board without journaling it or
+    // adding it to the undo history.  Listeners hear about board changes as
+    // usual.
+    void applyTo(Game game)
+    {
+        Block block = path == null ? null : findBlock(game.getRoot());
+        
+        switch(kind)
+        {
+            case SWAP_HORIZONTAL:
+                block.swap(true);
+                break;
+            case SWAP_VERTICAL:
+                block.swap(false);
+                break;
+            case ROTATE_CLOCKWISE:
+                block.rotate(true);
+                break;
+            case ROTATE_COUNTERCLOCKWISE:
+                block.rotate(false);
+                break;
+            case SMASH:
+                block.smash(seed);
+                break;
+            case SELECT:
+                game.select(block);
+                break;
+            case RESTORE:
+                BoardCodec.decodeInto(subtree, block);
+                block.fireBlockChanged();
+                break;
+        }
+    }
+    
+    private Block findBlock(Block root)
+    {
+        Block block = root;
+        
+        for(int index : path)
+        {
+            block = block.getChildren().get(index);
+        }
+        
+        return block;
+    }
+    
+    // Method that writes the event: the kind, the path length, the path
+    // packed four indexes to a byte, then the seed or encoded subtree.
+    void write(DataOutput out) throws IOException
+    {
+        out.writeByte(kind.ordinal());
+        writePath(out, path);
+        
+        if (kind == Kind.SMASH)
+        {
+            out.writeLong(seed);
+        }
+        else if (kind == Kind.RESTORE)
+        {
+            out.writeInt(subtree.length);
+            out.write(subtree);
+        }
+    }
+    
+    static JournalEvent read(DataInput in) throws IOException
+    {
+        int ordinal = in.readUnsignedByte();
+        
+        if (ordinal >= Kind.values().length)
+        {
+            throw new IOException("Unknown journal event " + ordinal);
+        }
+        
+        Kind kind = Kind.values()[ordinal];
+        int[] path = readPath(in);
+        long seed = 0;
+        byte[] subtree = null;
+        
+        if (kind == Kind.SMASH)
+        {
+            seed = in.readLong();
+        }
+        else if (kind == Kind.RESTORE)
+        {
+            subtree = new byte[in.readInt()];
+            in.readFully(subtree);
+        }
+        
+        return new JournalEvent(kind, path, seed, subtree);
+    }
+    
+    static void writePath(DataOutput out, int[] path) throws IOException
+    {
+        if (path == null)
+        {
+            out.writeByte(NO_PATH);
+            return;
+        }
+        
+        out.writeByte(path.length);
+        
+        for(int i = 0; i < path.length; i += 4)
+        {
+            int packed = 0;
+            
+            for(int j = i; j < Math.min(i + 4, path.length); j++)
+            {
+                packed |= path[j] << (2 * (j - i));
+            }
+            
+            out.writeByte(packed);
+        }
+    }
+    
+    static int[] readPath(DataInput in) throws IOException
+    {
+        int length = in.readUnsignedByte();
+        
+        if (length == NO_PATH)
+        {
+            return null;
+        }
+        
+        int[] path = new int[length];
+        
+        for(int i = 0; i < length; i += 4)
+        {
+            int packed = in.readUnsignedByte();
+            
+            for(int j = i; j < Math.min(i + 4, length); j++)
+            {
+                path[j] = (packed >>> (2 * (j - i))) & 3;
+            }
+        }
+        
+        return path;
+    }
+    
+    public Kind getKind()
+    {
+        return kind;
+    }
+    
+    public int[] getPath()
+    {
+        return path == null ? null : path.clone();
+    }
+    
+    public long getSeed()
+    {
+        return seed;
+    }
+    
+    @Override
+    public String toString()
+    {
+        StringBuilder builder = new StringBuilder(kind.toString());
+        
+        if (path != null)
+        {
+            builder.append(" at ").append(Arrays.toString(path));
+        }
+        
+        if (kind == Kind.SMASH)
+        {
+            builder.append(" seed ").append(seed);
+        }
+        
+        return builder.toString();
+    }
+}
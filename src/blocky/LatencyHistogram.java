@@ -0,0 +1,182 @@
+package blocky;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+// A histogram of non-negative values, usually nanoseconds, in the style of
+// HdrHistogram: buckets are grouped by power of two, and each group is split
+// into SUB_BUCKETS / 2 equal parts, so any recorded value is known to
+// within 2 / SUB_BUCKETS (about 3%) whatever its size.  Recording is
+// lock-free and allocation-free, so it can be called from any thread on hot
+// paths.
+public class LatencyHistogram implements LatencyHistogramMXBean
+{
+    final static int SUB_BUCKET_BITS = 6;
+    final static int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    
+    // Values below SUB_BUCKETS get a bucket each; every power of two above
+    // that gets SUB_BUCKETS / 2 more, up to Long.MAX_VALUE.
+    final static int BUCKETS = SUB_BUCKETS + (63 - SUB_BUCKET_BITS) * SUB_BUCKETS / 2;
+    
+    private final String name;
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+    
+    public LatencyHistogram(String inName)
+    {
+        name = inName;
+    }
+    
+    public void record(long value)
+    {
+        if (value < 0)
+        {
+            value = 0;
+        }
+        
+        counts.incrementAndGet(bucketOf(value));
+        count.increment();
+        sum.add(value);
+        
+        long oldMax = max.get();
+        
+        while (value > oldMax && !max.compareAndSet(oldMax, value))
+        {
+            oldMax = max.get();
+        }
+    }
+    
+    // Method that records the time since start, a System.nanoTime() reading.
+    public void recordSince(long start)
+    {
+        record(System.nanoTime() - start);
+    }
+    
+    static int bucketOf(long value)
+    {
+        if (value < SUB_BUCKETS)
+        {
+            return (int) value;
+        }
+        
+        // The top SUB_BUCKET_BITS bits of value pick the sub-bucket within
+        // the group for value's power of two.
+        int shift = 63 - Long.numberOfLeadingZeros(value) - (SUB_BUCKET_BITS - 1);
+        int subBucket = (int) (value >>> shift) - SUB_BUCKETS / 2;
+        return SUB_BUCKETS + (shift - 1) * (SUB_BUCKETS / 2) + subBucket;
+    }
+    
+    // Method that returns the largest value that falls in bucket.
+    static long highestValueIn(int bucket)
+    {
+        if (bucket < SUB_BUCKETS)
+        {
+            return bucket;
+        }
+        
+        int shift = (bucket - SUB_BUCKETS) / (SUB_BUCKETS / 2) + 1;
+        long subBucket = (bucket - SUB_BUCKETS) % (SUB_BUCKETS / 2) + SUB_BUCKETS / 2;
+        long next = (subBucket + 1) << shift;
+        
+        // The last bucket ends at Long.MAX_VALUE, where next wraps to 0.
+        return next <= 0 ? Long.MAX_VALUE : next - 1;
+    }
+    
+    // Method that returns a value at or above the given percentage of the
+    // recorded values, to within the histogram's precision.
+    public long getValueAtPercentile(double percentile)
+    {
+        long total = count.sum();
+        
+        if (total == 0)
+        {
+            return 0;
+        }
+        
+        long wanted = Math.max(1, (long) Math.ceil(total * percentile / 100));
+        long seen = 0;
+        
+        for(int bucket = 0; bucket < BUCKETS; bucket++)
+        {
+            seen += counts.get(bucket);
+            
+            if (seen >= wanted)
+            {
+                return Math.min(highestValueIn(bucket), max.get());
+            }
+        }
+        
+        return max.get();
+    }
+    
+    @Override
+    public void reset()
+    {
+        for(int bucket = 0; bucket < BUCKETS; bucket++)
+        {
+            counts.set(bucket, 0);
+        }
+        
+        count.reset();
+        sum.reset();
+        max.set(0);
+    }
+    
+    @Override
+    public String getName()
+    {
+        return name;
+    }
+    
+    @Override
+    public long getCount()
+    {
+        return count.sum();
+    }
+    
+    @Override
+    public double getMean()
+    {
+        long total = count.sum();
+        return total == 0 ? 0 : (double) sum.sum() / total;
+    }
+    
+    @Override
+    public long getMax()
+    {
+        return max.get();
+    }
+    
+    @Override
+    public long getP50()
+    {
+        return getValueAtPercentile(50);
+    }
+    
+    @Override
+    public long getP90()
+    {
+        return getValueAtPercentile(90);
+    }
+    
+    @Override
+    public long getP99()
+    {
+        return getValueAtPercentile(99);
+    }
+    
+    @Override
+    public long getP999()
+    {
+        return getValueAtPercentile(99.9);
+    }
+    
+    @Override
+    public String toString()
+    {
+        return String.format("%s count=%d mean=%.0f p50=%d p90=%d p99=%d p99.9=%d max=%d",
+                name, getCount(), getMean(), getP50(), getP90(), getP99(), getP999(), getMax());
+    }
+}
@@ -0,0 +1,24 @@
+package blocky;
+
+// The view of a LatencyHistogram published over JMX.  Values are in the
+// histogram's unit, nanoseconds for timings.
+public interface LatencyHistogramMXBean
+{
+    String getName();
+    
+    long getCount();
+    
+    double getMean();
+    
+    long getMax();
+    
+    long getP50();
+    
+    long getP90();
+    
+    long getP99();
+    
+    long getP999();
+    
+    void reset();
+}
@@ -0,0 +1,171 @@
+package blocky;
+import java.util.Arrays;
+import java.util.List;
+
+// A lookup table from any pixel of the board to the leaf block drawn there.
+// Every unit cell (one block at the deepest level) holds its leaf, stored in
+// Morton (Z) order so the cells under any block form one contiguous run.
+// The index listens to its tree and refills only the run under a block that
+// was swapped, rotated or smashed, so a lookup never walks the tree.
+//
+// The index can be built shallower than the board goes, e.g. down to the
+// smallest blocks that are still drawn.  A cell then holds the
+// block at depth covering it when the leaves under it are smaller still.
+public class LeafIndex implements BlockListener
+{
+    private final Block root;
+    
+    //depth:
+    //    The level whose blocks are one cell wide.
+    private final int depth;
+    
+    //leaves:
+    //    The leaf covering each cell, indexed by Morton code: the bits of the
+    //    cell row and column interleaved, row bits above column bits, which
+    //    matches the child order upper-left, upper-right, lower-left,
+    //    lower-right at every level.
+    private final Block[] leaves;
+    
+    //rowKeys, columnKeys:
+    //    For each pixel row and column, the row and column bits of the
+    //    Morton code of the cell it falls in.  They follow the integer
+    //    halving BoardPainter uses, so the answer agrees with what is drawn
+    //    even when sizes don't divide evenly.  The extra last entry is the
+    //    board's closing border line.
+    private final int[] rowKeys;
+    private final int[] columnKeys;
+    
+    public LeafIndex(Block inRoot, int inDepth)
+    {
+        root = inRoot;
+        depth = inDepth;
+        leaves = new Block[1 << (2 * depth)];
+        
+        int size = root.getSize();
+        columnKeys = new int[size + 1];
+        fillKeys(columnKeys, 0, size, 0, 1 << depth);
+        columnKeys[size] = columnKeys[Math.max(size - 1, 0)];
+        
+        rowKeys = new int[size + 1];
+        
+        for(int i = 0; i <= size; i++)
+        {
+            rowKeys[i] = columnKeys[i] << 1;
+        }
+        
+        root.resolveOrientation();
+        fill(root, 0);
+        root.addBlockListener(this);
+    }
+    
+    // Method that stops following the tree.
+    public void detach()
+    {
+        root.removeBlockListener(this);
+    }
+    
+    @Override
+    public void blockChanged(Block block)
+    {
+        // Below depth, the change shows up as a change to the block at depth.
+        while (block.getLevel() > depth)
+        {
+            block = block.getParent();
+        }
+        
+        int start = 0;
+        Block current = block;
+
+        // Work out where the block's run starts by walking up to the root.
+        while (current.getParent() != null)
+        {
+            int quadrant = current.getQuadrant();
+            
+            if (quadrant < 0)
+            {
+                // Smashed off the board; its cells were already refilled.
+                return;
+            }
+            
+            start += quadrant << (2 * (depth - current.getLevel()));
+            current = current.getParent();
+        }
+        
+        if (current == root)
+        {
+            fill(block, start);
+        }
+    }
+    
+    // Method that returns the leaf drawn at pixel (x, y) relative to the
+    // root's upper-left corner, or null if the pixel is off the board.
+    public Block leafAt(int x, int y)
+    {
+        if (x < 0 || y < 0 || x >= columnKeys.length || y >= rowKeys.length)
+        {
+            return null;
+        }
+        
+        return leaves[rowKeys[y] | columnKeys[x]];
+    }
+    
+    // Method that returns the leaf covering the given unit cell.
+    public Block leafAtCell(int row, int column)
+    {
+        return leaves[spread(row) << 1 | spread(column)];
+    }
+    
+    public int getDepth()
+    {
+        return depth;
+    }
+    
+    // Method that points every cell under block at the leaf covering it.
+    private void fill(Block block, int start)
+    {
+        List<Block> children = block.getResolvedChildren();
+        int level = block.getLevel();
+        
+        if (children.isEmpty() || level >= depth)
+        {
+            Arrays.fill(leaves, start, start + (1 << (2 * (depth - level))), block);
+        }
+        else
+        {
+            int quarter = 1 << (2 * (depth - level - 1));
+            
+            for(int i = 0; i < 4; i++)
+            {
+                fill(children.get(i), start + i * quarter);
+            }
+        }
+    }
+    
+    // Method that maps the pixels [start, start + size) onto cells
+    // [cell, cell + cells) by halving the way the painter does.  A pixel
+    // left over by an odd size is given to the second half, next to it.
+    private static void fillKeys(int[] keys, int start, int size, int cell, int cells)
+    {
+        if (cells == 1)
+        {
+            Arrays.fill(keys, start, start + size, spread(cell));
+        }
+        else
+        {
+            int half = size / 2;
+            fillKeys(keys, start, half, cell, cells / 2);
+            fillKeys(keys, start + half, size - half, cell + cells / 2, cells / 2);
+        }
+    }
+    
+    // Method that spreads the low 16 bits of value to the even bit positions.
+    static int spread(int value)
+    {
+        value &= 0xFFFF;
+        value = (value | (value << 8)) & 0x00FF00FF;
+        value = (value | (value << 4)) & 0x0F0F0F0F;
+        value = (value | (value << 2)) & 0x33333333;
+        value = (value | (value << 1)) & 0x55555555;
+        return value;
+    }
+}
@@ -0,0 +1,283 @@
+package blocky;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+// Drives a GameServer with many sessions playing random moves, and reports
+// the round-trip latency clients saw next to the latency the server
+// measured, overall and for the slowest session.  Without --port a server
+// is started in this JVM on a free port, which makes a quick benchmark; with
+// one, the server can run in a JVM of its own.
+//
+// Sessions are shared out over the connections, and each connection plays
+// a move in each of its sessions in turn, on a thread of its own.  Moves are
+// random paths and types without looking at the board, so some find no
+// block; those are counted as rejected.
+//
+// Started with: java blocky.Blocky --load [--port N] [--sessions N]
+//                                         [--moves N] [--connections N]
+//                                         [--seed N] [--depth N]
+public class LoadGenerator
+{
+    private final int port;
+    private final int sessions;
+    private final int movesPerSession;
+    private final int connections;
+    private final long seed;
+    private final int maxDepth;
+    
+    public LoadGenerator(int inPort, int inSessions, int inMovesPerSession, int inConnections, long inSeed, int inMaxDepth)
+    {
+        port = inPort;
+        sessions = inSessions;
+        movesPerSession = inMovesPerSession;
+        connections = inConnections;
+        seed = inSeed;
+        maxDepth = inMaxDepth;
+    }
+    
+    // Method that plays every session on the server and waits for them to
+    // finish.
+    public Report run() throws IOException, InterruptedException
+    {
+        LatencyHistogram roundTrips = new LatencyHistogram("clientMove");
+        LongAdder rejected = new LongAdder();
+        AtomicLong slowestMean = new AtomicLong();
+        AtomicLong slowestMax = new AtomicLong();
+        List<IOException> errors = new ArrayList<>();
+        
+        long start = System.nanoTime();
+        ExecutorService executor = GameExecutors.newBlockingTaskExecutor();
+        SplittableRandom seeds = new SplittableRandom(seed);
+        
+        for (int i = 0; i < connections; i++)
+        {
+            int first = i;
+            SplittableRandom random = seeds.split();
+            executor.execute(() ->
+            {
+                try
+                {
+                    play(first, random, roundTrips, rejected, slowestMean, slowestMax);
+                }
+                catch (IOException e)
+                {
+                    synchronized (errors)
+                    {
+                        errors.add(e);
+                    }
+                }
+            });
+        }
+        
+        executor.shutdown();
+        executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        long elapsed = System.nanoTime() - start;
+        
+        // Only give up on the run if no connection got through.
+        if (errors.size() == connections)
+        {
+            throw errors.get(0);
+        }
+        
+        try (GameClient client = new GameClient(port))
+        {
+            return new Report(sessions, roundTrips, rejected.sum(), errors.size(), elapsed,
+                    slowestMean.get(), slowestMax.get(), client.serverStats());
+        }
+    }
+    
+    // Method that plays the sessions first, first + connections, ... on a
+    // connection of their own.
+    private void play(int first, SplittableRandom random, LatencyHistogram roundTrips, LongAdder rejected,
+            AtomicLong slowestMean, AtomicLong slowestMax) throws IOException
+    {
+        try (GameClient client = new GameClient(port))
+        {
+            List<Integer> ids = new ArrayList<>();
+            
+            for (int i = first; i < sessions; i += connections)
+            {
+                ids.add(client.open(random.nextLong(), maxDepth));
+            }
+            
+            for (int move = 0; move < movesPerSession; move++)
+            {
+                for (int id : ids)
+                {
+                    Move randomMove = randomMove(random);
+                    long moveStart = System.nanoTime();
+                    
+                    if (!client.move(id, randomMove))
+                    {
+                        rejected.increment();
+                    }
+                    
+                    roundTrips.recordSince(moveStart);
+                }
+            }
+            
+            for (int id : ids)
+            {
+                GameServer.SessionStats stats = client.stats(id);
+                slowestMean.accumulateAndGet((long) stats.getMeanNanos(), Math::max);
+                slowestMax.accumulateAndGet(stats.maxNanos, Math::max);
+                client.closeSession(id);
+            }
+        }
+    }
+    
+    // Method that picks a move at a random path, each level down half as
+    // likely as the one above, like a player who mostly plays big blocks.
+    private Move randomMove(SplittableRandom random)
+    {
+        int level = 0;
+        
+        while (level < maxDepth - 1 && random.nextBoolean())
+        {
+            level++;
+        }
+        
+        int[] path = new int[level];
+        
+        for (int i = 0; i < level; i++)
+        {
+            path[i] = random.nextInt(4);
+        }
+        
+        Move.Type[] types = Move.Type.values();
+        return new Move(path, types[random.nextInt(types.length)]);
+    }
+    
+    // Throughput and latency of one run, as the clients and the server saw
+    // them.
+    public static class Report
+    {
+        public final int sessions;
+        public final long moves;
+        public final long rejected;
+        public final int failures;
+        public final long elapsedNanos;
+        
+        //slowestMeanNanos, slowestMaxNanos:
+        //    The highest mean and maximum move latency of any one session,
+        //    measured by the server.
+        public final long slowestMeanNanos;
+        public final long slowestMaxNanos;
+        
+        private final LatencyHistogram roundTrips;
+        private final GameServer.ServerStats server;
+        
+        Report(int inSessions, LatencyHistogram inRoundTrips, long inRejected, int inFailures, long inElapsedNanos,
+                long inSlowestMeanNanos, long inSlowestMaxNanos, GameServer.ServerStats inServer)
+        {
+            sessions = inSessions;
+            roundTrips = inRoundTrips;
+            moves = roundTrips.getCount();
+            rejected = inRejected;
+            failures = inFailures;
+            elapsedNanos = inElapsedNanos;
+            slowestMeanNanos = inSlowestMeanNanos;
+            slowestMaxNanos = inSlowestMaxNanos;
+            server = inServer;
+        }
+        
+        public double getMovesPerSecond()
+        {
+            return moves * 1e9 / elapsedNanos;
+        }
+        
+        // Method that returns the round-trip latency at a percentile (0-100).
+        public long getRoundTripPercentile(double percentile)
+        {
+            return roundTrips.getValueAtPercentile(percentile);
+        }
+        
+        public GameServer.ServerStats getServerStats()
+        {
+            return server;
+        }
+        
+        @Override
+        public String toString()
+        {
+            return String.format("%d sessions, %d moves (%d rejected), %d connections failed in %.2f s%n"
+                    + "throughput: %.1f moves/s%n"
+                    + "round trip (us): p50 %d  p90 %d  p99 %d  max %d%n"
+                    + "server: %s%n"
+                    + "slowest session (us): mean %d  max %d",
+                    sessions, moves, rejected, failures, elapsedNanos / 1e9,
+                    getMovesPerSecond(),
+                    getRoundTripPercentile(50) / 1000, getRoundTripPercentile(90) / 1000,
+                    getRoundTripPercentile(99) / 1000, roundTrips.getMax() / 1000,
+                    server, slowestMeanNanos / 1000, slowestMaxNanos / 1000);
+        }
+    }
+    
+    public static void main(String[] args) throws IOException, InterruptedException
+    {
+        System.setProperty("java.awt.headless", "true");
+        
+        int port = -1;
+        int sessions = 1000;
+        int moves = 50;
+        int connections = 16;
+        long seed = System.nanoTime();
+        int depth = Block.DEFAULT_MAX_DEPTH;
+        
+        for (int i = 0; i + 1 < args.length; i += 2)
+        {
+            switch (args[i])
+            {
+                case "--port":
+                    port = Integer.parseInt(args[i + 1]);
+                    break;
+                case "--sessions":
+                    sessions = Integer.parseInt(args[i + 1]);
+                    break;
+                case "--moves":
+                    moves = Integer.parseInt(args[i + 1]);
+                    break;
+                case "--connections":
+                    connections = Integer.parseInt(args[i + 1]);
+                    break;
+                case "--seed":
+                    seed = Long.parseLong(args[i + 1]);
+                    break;
+                case "--depth":
+                    depth = Integer.parseInt(args[i + 1]);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+        
+        GameServer server = null;
+        
+        if (port < 0)
+        {
+            server = GameServer.start(0, sessions, Math.max(depth, GameServer.DEFAULT_MAX_DEPTH));
+            port = server.getPort();
+        }
+        
+        System.out.println("Playing " + sessions + " sessions of " + moves + " moves over " + connections
+                + " connections to localhost:" + port);
+        
+        try
+        {
+            System.out.println(new LoadGenerator(port, sessions, moves, connections, seed, depth).run());
+        }
+        finally
+        {
+            if (server != null)
+            {
+                server.close();
+            }
+        }
+    }
+}
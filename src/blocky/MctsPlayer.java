@@ -0,0 +1,424 @@
+package blocky;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.ToIntFunction;
+
+// A computer player that looks further ahead than ComputerPlayer with Monte
+// Carlo tree search.  Every worker thread of a ForkJoinPool grows its own
+// search tree from the current board until the time budget runs out, and
+// the trees' visit counts for each first move are added up at the end
+// (root parallelization), so the workers never share a node or a lock.
+//
+// Positions in the tree are PersistentBlocks: a move copies only the path
+// it changes, so every node keeps its own board and a rollout can play on
+// from it without undoing anything.  A rollout plays a few random moves and
+// scores the board it ends on with the player's goal.  A smash in the tree
+// always uses the seed it was first expanded with, so its subtree is only a
+// sample of what that smash might give.
+//
+// Every worker draws from a stream split off the player's random in a fixed
+// order, so a seeded player repeats its searches exactly as far as the time
+// budget lets each worker play the same number of rollouts.
+public class MctsPlayer extends Player
+{
+    // Time budget per move when none is given.
+    public final static long DEFAULT_BUDGET_MILLIS = 200;
+    
+    // Random moves played on from a new node; the best board along the way
+    // is its reward.
+    private final static int ROLLOUT_MOVES = 2;
+    
+    // Weight of the exploration term in UCB1.  Rewards are scaled to 0-1.
+    private final static double EXPLORATION = 0.5;
+    
+    private final static Move.Type[] TYPES = Move.Type.values();
+    
+    private final ForkJoinPool pool;
+    private final long budgetNanos;
+    
+    //random:
+    //    Each search splits a stream off this one for its workers.  Only
+    //    used by the thread calling chooseMove.
+    private final SplittableRandom random;
+
+    // Statistics from the last search.
+    private volatile long lastRollouts;
+    private volatile long lastSearchNanos;
+    
+    public MctsPlayer(String name, Goal goal)
+    {
+        this(name, goal, DEFAULT_BUDGET_MILLIS);
+    }
+    
+    public MctsPlayer(String name, Goal goal, long budgetMillis)
+    {
+        this(name, goal, budgetMillis, ForkJoinPool.commonPool());
+    }
+    
+    // Method that makes a player whose searches can be repeated, see above.
+    public MctsPlayer(String name, Goal goal, long budgetMillis, long seed)
+    {
+        this(name, goal, budgetMillis, ForkJoinPool.commonPool(), new SplittableRandom(seed));
+    }
+    
+    // One tree is grown for each thread the pool can run at once.
+    public MctsPlayer(String name, Goal goal, long budgetMillis, ForkJoinPool inPool)
+    {
+        this(name, goal, budgetMillis, inPool, new SplittableRandom());
+    }
+    
+    public MctsPlayer(String name, Goal goal, long budgetMillis, ForkJoinPool inPool, SplittableRandom inRandom)
+    {
+        super(name, goal);
+        budgetNanos = budgetMillis * 1000000;
+        pool = inPool;
+        random = inRandom;
+    }
+    
+    @Override
+    public Move chooseMove(Game game)
+    {
+        long start = System.nanoTime();
+        PersistentBlock board = PersistentBlock.of(game.getRoot());
+        List<Move> moves = Move.legalMoves(board);
+        
+        if (moves.isEmpty())
+        {
+            return null;
+        }
+        
+        Stats stats = pool.invoke(new RolloutTask(board, moves, start + budgetNanos, random.split(), 0, pool.getParallelism()));
+        int best = 0;
+        
+        // Ties go to the better average, then to the earlier move.
+        for (int i = 1; i < moves.size(); i++)
+        {
+            if (stats.visits[i] > stats.visits[best] || (stats.visits[i] == stats.visits[best]
+                    && stats.rewards[i] * stats.visits[best] > stats.rewards[best] * stats.visits[i]))
+            {
+                best = i;
+            }
+        }
+        
+        lastRollouts = stats.rollouts;
+        lastSearchNanos = System.nanoTime() - start;
+        return moves.get(best);
+    }
+    
+    public long getBudgetMillis()
+    {
+        return budgetNanos / 1000000;
+    }
+    
+    public long getLastRollouts()
+    {
+        return lastRollouts;
+    }
+    
+    // Method that returns how many rollouts per second the last search
+    // played, over all threads.
+    public double getRolloutsPerSecond()
+    {
+        return lastSearchNanos == 0 ? 0 : lastRollouts * 1e9 / lastSearchNanos;
+    }
+    
+    // Method that returns 0, 1, ... size - 1.
+    private static int[] identity(int size)
+    {
+        int[] order = new int[size];
+        
+        for (int i = 0; i < size; i++)
+        {
+            order[i] = i;
+        }
+        
+        return order;
+    }
+    
+    // Visits and summed raw scores for each first move, from one or more
+    // trees.
+    private static class Stats
+    {
+        final long[] visits;
+        final double[] rewards;
+        long rollouts;
+        
+        Stats(int moves)
+        {
+            visits = new long[moves];
+            rewards = new double[moves];
+        }
+        
+        Stats add(Stats other)
+        {
+            for (int i = 0; i < visits.length; i++)
+            {
+                visits[i] += other.visits[i];
+                rewards[i] += other.rewards[i];
+            }
+            
+            rollouts += other.rollouts;
+            return this;
+        }
+    }
+    
+    // A position in one worker's tree.
+    private static class Node
+    {
+        final PersistentBlock board;
+        final Node parent;
+        
+        //moveIndex:
+        //    The move from parent that led here, as an index into
+        //    parent.moves.
+        final int moveIndex;
+        
+        //moves, order, tried:
+        //    The legal moves from here, listed when the node is first
+        //    expanded.  order[0, tried) are the moves with a child in
+        //    children; the rest are shuffled in as they are tried.
+        List<Move> moves;
+        int[] order;
+        int tried;
+        
+        final List<Node> children = new ArrayList<>();
+        long visits;
+        double reward;
+        
+        Node(PersistentBlock inBoard, Node inParent, int inMoveIndex)
+        {
+            board = inBoard;
+            parent = inParent;
+            moveIndex = inMoveIndex;
+        }
+        
+        boolean isFullyExpanded()
+        {
+            return moves != null && tried == moves.size();
+        }
+    }
+    
+    // One worker's search: a tree grown from the board until the deadline.
+    private class Search
+    {
+        final Node root;
+        final SplittableRandom random;
+        final int side;
+        
+        // Path scratch for rollout moves.
+        final int[] path;
+        
+        //cells, scorer:
+        //    The flattened board and the goal's working memory, reused by
+        //    every rollout so scoring doesn't allocate a grid each time.
+        final byte[] cells;
+        final ToIntFunction<byte[]> scorer;
+
+        //lowestScore, highestScore:
+        //    The range of the rollouts' scores so far, which averages are
+        //    scaled to 0-1 by.  Scores on a board tend to bunch together,
+        //    and scaling by the highest alone would leave too little
+        //    between them for the exploration term to be outweighed.
+        double lowestScore = Double.POSITIVE_INFINITY;
+        double highestScore = Double.NEGATIVE_INFINITY;
+        
+        Search(PersistentBlock board, List<Move> rootMoves, SplittableRandom inRandom)
+        {
+            root = new Node(board, null, -1);
+            root.moves = rootMoves;
+            root.order = identity(rootMoves.size());
+            random = inRandom;
+            side = 1 << board.getMaxDepth();
+            path = new int[board.getMaxDepth()];
+            cells = new byte[side * side];
+            scorer = getGoal().newScorer(side);
+        }
+        
+        Stats run(long deadline)
+        {
+            Stats stats = new Stats(root.moves.size());
+            
+            do
+            {
+                Node node = root;
+                
+                while (node.isFullyExpanded() && !node.children.isEmpty())
+                {
+                    node = select(node);
+                }
+                
+                node = expand(node);
+                double score = rollout(node.board);
+                lowestScore = Math.min(lowestScore, score);
+                highestScore = Math.max(highestScore, score);
+                
+                for (; node != null; node = node.parent)
+                {
+                    node.visits++;
+                    node.reward += score;
+                }
+                
+                stats.rollouts++;
+            }
+            while (System.nanoTime() < deadline);
+            
+            for (Node child : root.children)
+            {
+                stats.visits[child.moveIndex] = child.visits;
+                stats.rewards[child.moveIndex] = child.reward;
+            }
+            
+            return stats;
+        }
+        
+        // Method that returns the child with the highest UCB1 value.
+        private Node select(Node node)
+        {
+            double logVisits = Math.log(node.visits);
+            double range = Math.max(highestScore - lowestScore, 1);
+            Node best = null;
+            double bestValue = Double.NEGATIVE_INFINITY;
+            
+            for (Node child : node.children)
+            {
+                double value = (child.reward / child.visits - lowestScore) / range
+                        + EXPLORATION * Math.sqrt(logVisits / child.visits);
+                
+                if (value > bestValue)
+                {
+                    best = child;
+                    bestValue = value;
+                }
+            }
+            
+            return best;
+        }
+        
+        // Method that adds a child for a random untried move of node and
+        // returns it, or returns node itself if it has no moves.
+        private Node expand(Node node)
+        {
+            if (node.moves == null)
+            {
+                node.moves = Move.legalMoves(node.board);
+                node.order = identity(node.moves.size());
+            }
+            
+            if (node.tried == node.moves.size())
+            {
+                return node;
+            }
+            
+            int pick = node.tried + random.nextInt(node.moves.size() - node.tried);
+            int moveIndex = node.order[pick];
+            node.order[pick] = node.order[node.tried];
+            node.order[node.tried++] = moveIndex;
+            
+            PersistentBlock board = node.board.apply(node.moves.get(moveIndex), random.nextLong());
+            Node child = new Node(board, node, moveIndex);
+            node.children.add(child);
+            return child;
+        }
+        
+        // Method that plays random moves from board and returns the best
+        // score of the boards on the way, board itself included.  A player
+        // needn't make a move that loses ground, so a bad random move
+        // doesn't count against the position.
+        private double rollout(PersistentBlock board)
+        {
+            int best = score(board);
+            
+            for (int i = 0; i < ROLLOUT_MOVES; i++)
+            {
+                board = randomMove(board);
+                best = Math.max(best, score(board));
+            }
+            
+            return best;
+        }
+        
+        private int score(PersistentBlock board)
+        {
+            board.flattenInto(cells);
+            return scorer.applyAsInt(cells);
+        }
+        
+        // Method that plays a random move on board.  The move is found by
+        // walking down from the root, at each block either acting on it or
+        // going on into a random child, so moves high up the board, which
+        // change the most, are the likeliest.  Returns board itself if the
+        // walk ends on a block with no moves.
+        private PersistentBlock randomMove(PersistentBlock board)
+        {
+            PersistentBlock block = board;
+            int depth = 0;
+            
+            while (true)
+            {
+                boolean canSmash = block.getLevel() != 0 && block.getLevel() < block.getMaxDepth();
+                int actions = (block.isLeaf() ? 0 : 4) + (canSmash ? 1 : 0);
+                int choices = actions + (block.isLeaf() ? 0 : 4);
+                
+                if (choices == 0)
+                {
+                    return board;
+                }
+                
+                int choice = random.nextInt(choices);
+                
+                if (choice < actions)
+                {
+                    Move.Type type = choice < 4 && !block.isLeaf() ? TYPES[choice] : Move.Type.SMASH;
+                    return board.apply(new Move(Arrays.copyOf(path, depth), type), random.nextLong());
+                }
+                
+                path[depth++] = choice - actions;
+                block = block.getChild(choice - actions);
+            }
+        }
+    }
+    
+    // Grows one tree per worker in [from, to) and adds up their statistics.
+    // The range's random is split in half the same way every time, so each
+    // worker gets the same stream.
+    @SuppressWarnings("serial")
+    private class RolloutTask extends RecursiveTask<Stats>
+    {
+        private final PersistentBlock board;
+        private final List<Move> moves;
+        private final long deadline;
+        private final SplittableRandom random;
+        private final int from;
+        private final int to;
+        
+        RolloutTask(PersistentBlock inBoard, List<Move> inMoves, long inDeadline, SplittableRandom inRandom, int inFrom, int inTo)
+        {
+            board = inBoard;
+            moves = inMoves;
+            deadline = inDeadline;
+            random = inRandom;
+            from = inFrom;
+            to = inTo;
+        }
+        
+        @Override
+        protected Stats compute()
+        {
+            if (to - from <= 1)
+            {
+                return new Search(board, moves, random).run(deadline);
+            }
+            
+            int middle = (from + to) >>> 1;
+            RolloutTask left = new RolloutTask(board, moves, deadline, random.split(), from, middle);
+            RolloutTask right = new RolloutTask(board, moves, deadline, random, middle, to);
+            left.fork();
+            Stats rightStats = right.compute();
+            return left.join().add(rightStats);
+        }
+    }
+}
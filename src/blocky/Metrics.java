@@ -0,0 +1,226 @@
+package blocky;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+// Counters and latency histograms for the hot paths, switched on with
+// -Dblocky.metrics=true.  When they are on, every histogram is published
+// over JMX as blocky:type=Latency,name=<name> and the counters as
+// blocky:type=Metrics; with -Dblocky.metrics.file=<path> a line per
+// histogram is also appended to that file every blocky.metrics.interval
+// seconds (10 by default).
+//
+// ENABLED is a constant, so with metrics off the JIT drops the
+// instrumentation entirely.  Callers guard with it:
+//
+//    long start = Metrics.ENABLED ? System.nanoTime() : 0;
+//    ...
+//    if (Metrics.ENABLED) Metrics.DISPLAY.recordSince(start);
+public final class Metrics implements MetricsMXBean
+{
+    public final static boolean ENABLED = Boolean.getBoolean("blocky.metrics");
+    
+    //=== Latencies, in nanoseconds ===
+    // One frame drawn by GameRenderer's render thread.
+    public final static LatencyHistogram DISPLAY = new LatencyHistogram("display");
+    public final static LatencyHistogram PAINT_BLOCKS = new LatencyHistogram("paintBlocks");
+    public final static LatencyHistogram HIGHLIGHT_BLOCK = new LatencyHistogram("highlightBlock");
+    public final static LatencyHistogram CREATE_RANDOM_CHILDREN = new LatencyHistogram("createRandomChildren");
+    // One key press or mouse click, from its arrival on the event thread to
+    // the end of the frame that draws it.
+    public final static LatencyHistogram INPUT_EVENT = new LatencyHistogram("inputEvent");
+    // Encoding the board for a GameCheckpointer, on the thread that plays
+    // the game.
+    public final static LatencyHistogram CHECKPOINT_CAPTURE = new LatencyHistogram("checkpointCapture");
+
+    //=== Per input event ===
+    public final static LatencyHistogram BLOCKS_PER_EVENT = new LatencyHistogram("blocksVisitedPerEvent");
+    public final static LatencyHistogram BYTES_PER_EVENT = new LatencyHistogram("bytesAllocatedPerEvent");
+    // Input events coalesced into one frame.
+    public final static LatencyHistogram EVENTS_PER_FRAME = new LatencyHistogram("inputEventsPerFrame");
+
+    //=== Counters ===
+    public final static LongAdder FRAMES = new LongAdder();
+    public final static LongAdder INPUT_EVENTS = new LongAdder();
+    public final static LongAdder BLOCKS_VISITED = new LongAdder();
+    public final static LongAdder BLOCKS_CREATED = new LongAdder();
+    // Blocks of those taken from a BlockPool rather than allocated.
+    public final static LongAdder BLOCKS_REUSED = new LongAdder();
+    
+    final static List<LatencyHistogram> HISTOGRAMS = Arrays.asList(DISPLAY, PAINT_BLOCKS, HIGHLIGHT_BLOCK,
+            CREATE_RANDOM_CHILDREN, INPUT_EVENT, CHECKPOINT_CAPTURE, BLOCKS_PER_EVENT, BYTES_PER_EVENT,
+            EVENTS_PER_FRAME);
+    
+    private final static ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+    
+    static
+    {
+        if (ENABLED)
+        {
+            register();
+            startDump();
+        }
+    }
+    
+    private Metrics()
+    {
+    }
+    
+    // Method that returns the bytes the current thread has allocated so
+    // far, or 0 if the JVM can't tell.
+    public static long allocatedBytes()
+    {
+        if (THREADS instanceof com.sun.management.ThreadMXBean)
+        {
+            return ((com.sun.management.ThreadMXBean) THREADS).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        
+        return 0;
+    }
+    
+    // Method that starts measuring a batch of input events.  Returns the
+    // readings endInputEvents needs, or null when metrics are off.
+    public static long[] beginInputEvent()
+    {
+        if (!ENABLED)
+        {
+            return null;
+        }
+        
+        return new long[] {System.nanoTime(), allocatedBytes(), BLOCKS_VISITED.sum()};
+    }
+    
+    // Method that ends measuring the first count events in arrivals, drawn
+    // together in one frame.  arrivals holds the System.nanoTime() reading
+    // taken as each event came in; what the frame allocated and visited is
+    // shared out evenly among the events.
+    public static void endInputEvents(long[] begin, long[] arrivals, int count)
+    {
+        if (begin != null && count > 0)
+        {
+            for(int i = 0; i < count; i++)
+            {
+                INPUT_EVENT.recordSince(arrivals[i]);
+            }
+            
+            BYTES_PER_EVENT.record((allocatedBytes() - begin[1]) / count);
+            BLOCKS_PER_EVENT.record((BLOCKS_VISITED.sum() - begin[2]) / count);
+            EVENTS_PER_FRAME.record(count);
+            INPUT_EVENTS.add(count);
+        }
+    }
+    
+    // Method that writes one line per histogram and one for the counters.
+    public static void dump(PrintWriter out)
+    {
+        long now = System.currentTimeMillis();
+        
+        for (LatencyHistogram histogram : HISTOGRAMS)
+        {
+            out.println(now + " " + histogram);
+        }
+        
+        out.println(now + " counters frames=" + FRAMES.sum() + " inputEvents=" + INPUT_EVENTS.sum()
+                + " blocksVisited=" + BLOCKS_VISITED.sum() + " blocksCreated=" + BLOCKS_CREATED.sum()
+                + " blocksReused=" + BLOCKS_REUSED.sum());
+    }
+    
+    private static void register()
+    {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        
+        try
+        {
+            for (LatencyHistogram histogram : HISTOGRAMS)
+            {
+                server.registerMBean(histogram, new ObjectName("blocky:type=Latency,name=" + histogram.getName()));
+            }
+            
+            server.registerMBean(new Metrics(), new ObjectName("blocky:type=Metrics"));
+        }
+        catch (JMException e)
+        {
+            // Already registered, e.g. by another class loader; the metrics
+            // are still collected.
+            System.err.println("Could not publish metrics over JMX: " + e);
+        }
+    }
+    
+    private static void startDump()
+    {
+        String file = System.getProperty("blocky.metrics.file");
+        
+        if (file == null)
+        {
+            return;
+        }
+        
+        Path path = Paths.get(file);
+        long interval = Long.getLong("blocky.metrics.interval", 10);
+        
+        ScheduledExecutorService dumper = Executors.newSingleThreadScheduledExecutor(task ->
+        {
+            Thread thread = new Thread(task, "Metrics dump");
+            thread.setDaemon(true);
+            return thread;
+        });
+        
+        dumper.scheduleAtFixedRate(() ->
+        {
+            try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(path,
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND)))
+            {
+                dump(out);
+            }
+            catch (IOException e)
+            {
+                // Try again next time rather than stop dumping.
+                System.err.println("Could not dump metrics: " + e);
+            }
+        }, interval, interval, TimeUnit.SECONDS);
+    }
+    
+    @Override
+    public long getFrames()
+    {
+        return FRAMES.sum();
+    }
+    
+    @Override
+    public long getInputEvents()
+    {
+        return INPUT_EVENTS.sum();
+    }
+    
+    @Override
+    public long getBlocksVisited()
+    {
+        return BLOCKS_VISITED.sum();
+    }
+    
+    @Override
+    public long getBlocksCreated()
+    {
+        return BLOCKS_CREATED.sum();
+    }
+    
+    @Override
+    public long getBlocksReused()
+    {
+        return BLOCKS_REUSED.sum();
+    }
+}
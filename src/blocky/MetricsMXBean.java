@@ -0,0 +1,15 @@
+package blocky;
+
+// The counters in Metrics, published over JMX.
+public interface MetricsMXBean
+{
+    long getFrames();
+    
+    long getInputEvents();
+    
+    long getBlocksVisited();
+    
+    long getBlocksCreated();
+    
+    long getBlocksReused();
+}
@@ -0,0 +1,219 @@
+package blocky;
+import java.util.ArrayList;
+import java.util.List;
+
+// One move on the board: an action applied to the block found by following
+// a path of child indexes from the root.  Moves don't hold on to Block
+// objects, so the same move can be applied to a copy of the board.
+public class Move
+{
+    public enum Type
+    {
+        SWAP_HORIZONTAL, SWAP_VERTICAL, ROTATE_CLOCKWISE, ROTATE_COUNTERCLOCKWISE, SMASH
+    }
+    
+    //path:
+    //    The child index taken at each level on the way down from the root.
+    //    Empty for the root itself.
+    private final int[] path;
+    
+    private final Type type;
+    
+    public Move(int[] inPath, Type inType)
+    {
+        path = inPath.clone();
+        type = inType;
+    }
+    
+    // Method that builds a move on a block that is currently on a board.
+    public static Move of(Block block, Type type)
+    {
+        return new Move(pathOf(block), type);
+    }
+    
+    // Method that returns the child indexes leading from the root down to a
+    // block that is currently on a board.
+    static int[] pathOf(Block block)
+    {
+        int[] path = new int[block.getLevel()];
+        Block current = block;
+        
+        while(current.getParent() != null)
+        {
+            path[current.getLevel() - 1] = current.getQuadrant();
+            current = current.getParent();
+        }
+        
+        return path;
+    }
+    
+    // Method that lists every move that changes the board: swaps and
+    // rotations of subdivided blocks, and smashes of blocks that may be
+    // smashed.
+    public static List<Move> legalMoves(Block root)
+    {
+        List<Move> moves = new ArrayList<>();
+        addLegalMoves(root, new int[0], moves);
+        return moves;
+    }
+    
+    private static void addLegalMoves(Block block, int[] path, List<Move> moves)
+    {
+        List<Block> children = block.getChildren();
+        
+        if(!children.isEmpty())
+        {
+            moves.add(new Move(path, Type.SWAP_HORIZONTAL));
+            moves.add(new Move(path, Type.SWAP_VERTICAL));
+            moves.add(new Move(path, Type.ROTATE_CLOCKWISE));
+            moves.add(new Move(path, Type.ROTATE_COUNTERCLOCKWISE));
+        }
+        
+        if(block.getLevel() != 0 && block.getLevel() < block.getMaxDepth())
+        {
+            moves.add(new Move(path, Type.SMASH));
+        }
+        
+        for(int i = 0; i < children.size(); i++)
+        {
+            int[] childPath = new int[path.length + 1];
+            System.arraycopy(path, 0, childPath, 0, path.length);
+            childPath[path.length] = i;
+            addLegalMoves(children.get(i), childPath, moves);
+        }
+    }
+    
+    // Method that lists the same moves on an immutable board.
+    public static List<Move> legalMoves(PersistentBlock root)
+    {
+        List<Move> moves = new ArrayList<>();
+        addLegalMoves(root, new int[0], moves);
+        return moves;
+    }
+    
+    private static void addLegalMoves(PersistentBlock block, int[] path, List<Move> moves)
+    {
+        if(!block.isLeaf())
+        {
+            moves.add(new Move(path, Type.SWAP_HORIZONTAL));
+            moves.add(new Move(path, Type.SWAP_VERTICAL));
+            moves.add(new Move(path, Type.ROTATE_CLOCKWISE));
+            moves.add(new Move(path, Type.ROTATE_COUNTERCLOCKWISE));
+        }
+        
+        if(block.getLevel() != 0 && block.getLevel() < block.getMaxDepth())
+        {
+            moves.add(new Move(path, Type.SMASH));
+        }
+        
+        for(int i = 0; !block.isLeaf() && i < 4; i++)
+        {
+            int[] childPath = new int[path.length + 1];
+            System.arraycopy(path, 0, childPath, 0, path.length);
+            childPath[path.length] = i;
+            addLegalMoves(block.getChild(i), childPath, moves);
+        }
+    }
+    
+    // Method that finds the block this move acts on, or null if the board
+    // doesn't have it.
+    public Block findBlock(Block root)
+    {
+        Block block = root;
+        
+        for(int index : path)
+        {
+            List<Block> children = block.getChildren();
+            
+            if(children.isEmpty())
+            {
+                return null;
+            }
+            
+            block = children.get(index);
+        }
+        
+        return block;
+    }
+    
+    // Method that applies the move to a board and returns the block it acted
+    // on.  game supplies the random children for a smash.
+    public Block apply(Block root, Game game)
+    {
+        Block block = findBlock(root);
+        applyTo(block, game);
+        return block;
+    }
+    
+    // Method that applies the move to a block that was already found.
+    void applyTo(Block block, Game game)
+    {
+        if(block != null)
+        {
+            switch(type)
+            {
+                case SWAP_HORIZONTAL:
+                    block.swap(true);
+                    break;
+                case SWAP_VERTICAL:
+                    block.swap(false);
+                    break;
+                case ROTATE_CLOCKWISE:
+                    block.rotate(true);
+                    break;
+                case ROTATE_COUNTERCLOCKWISE:
+                    block.rotate(false);
+                    break;
+                case SMASH:
+                    block.smash(game);
+                    break;
+            }
+        }
+    }
+    
+    // Method that returns the move that undoes this one, or null for a smash,
+    // which can't be undone by another move.
+    public Move inverse()
+    {
+        switch(type)
+        {
+            case ROTATE_CLOCKWISE:
+                return new Move(path, Type.ROTATE_COUNTERCLOCKWISE);
+            case ROTATE_COUNTERCLOCKWISE:
+                return new Move(path, Type.ROTATE_CLOCKWISE);
+            case SMASH:
+                return null;
+            default:
+                // A swap undoes itself.
+                return this;
+        }
+    }
+    
+    public int[] getPath()
+    {
+        return path.clone();
+    }
+    
+    public int getLevel()
+    {
+        return path.length;
+    }
+    
+    public Type getType()
+    {
+        return type;
+    }
+    
+    @Override
+    public String toString()
+    {
+        StringBuilder builder = new StringBuilder(type.toString()).append(" at [");
+        
+        for(int i = 0; i < path.length; i++)
+        {
+            builder.append(i == 0 ? "" : ", ").append(path[i]);
+        }
+        
+        return builder.append(']').toString();
+    }
+}
@@ -0,0 +1,43 @@
+package blocky;
+import java.awt.Color;
+
+// Goal of putting the most unit cells of the target color on the edge of
+// the board.  Corner cells sit on two edges and count twice.
+public class PerimeterGoal extends Goal
+{
+    public PerimeterGoal(Color color)
+    {
+        super(color);
+    }
+    
+    // The grid's bitboards answer with a popcount per word of edge cells.
+    @Override
+    public int score(BoardGrid grid)
+    {
+        return grid.getBitboards().edgeCount(colorIndex);
+    }
+    
+    @Override
+    public int score(byte[] cells, int side)
+    {
+        int score = 0;
+        int last = side - 1;
+        
+        for (int i = 0; i < side; i++)
+        {
+            // Top, bottom, left and right edges.
+            score += cells[i] == colorIndex ? 1 : 0;
+            score += cells[last * side + i] == colorIndex ? 1 : 0;
+            score += cells[i * side] == colorIndex ? 1 : 0;
+            score += cells[i * side + last] == colorIndex ? 1 : 0;
+        }
+        
+        return score;
+    }
+    
+    @Override
+    public String getDescription()
+    {
+        return "Put the most cells of this color on the outside edge";
+    }
+}
@@ -0,0 +1,371 @@
+package blocky;
+import java.awt.Color;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.function.UnaryOperator;
+
+// An immutable version of Block.  A move never changes a PersistentBlock;
+// it returns a new root that shares every untouched subtree with the old
+// one, copying only the blocks on the path from the changed block up to the
+// root.  Keeping an old root around is therefore as cheap as keeping a
+// reference, and a board can be forked by handing the same root to two
+// owners.
+public final class PersistentBlock
+{
+    // Child order after 0-3 clockwise quarter turns, as in Block.
+    private final static int[][] ROTATIONS = {{0, 1, 2, 3}, {2, 0, 3, 1}, {3, 2, 1, 0}, {1, 3, 0, 2}};
+    private final static int[] SWAP_HORIZONTAL = {1, 0, 3, 2};
+    private final static int[] SWAP_VERTICAL = {2, 3, 0, 1};
+    
+    private final int level;
+    
+    //maxDepth:
+    //    The deepest level of the board, the same in every block of it.
+    private final byte maxDepth;
+
+    //colorIndex:
+    //    Index into Block.COLORS for a leaf, -1 for a subdivided block or
+    //    the plain white root.
+    private final byte colorIndex;
+    
+    //children:
+    //    The four children as stored, or null for a leaf.  They are shared
+    //    with other versions of the board and must never be written to.
+    private final PersistentBlock[] children;
+    
+    //orientation:
+    //    Clockwise quarter turns of this whole subtree that have not been
+    //    applied to children, so a rotation costs one new block.  getChild
+    //    applies it on the way down.
+    private final int orientation;
+    
+    private PersistentBlock(int inLevel, int inMaxDepth, int inColorIndex, PersistentBlock[] inChildren, int inOrientation)
+    {
+        level = inLevel;
+        maxDepth = (byte) inMaxDepth;
+        colorIndex = (byte) inColorIndex;
+        children = inChildren;
+        orientation = inOrientation;
+    }
+    
+    // Method that takes an immutable snapshot of the tree under block.
+    public static PersistentBlock of(Block block)
+    {
+        List<Block> blockChildren = block.getChildren();
+        
+        if (blockChildren.isEmpty())
+        {
+            return new PersistentBlock(block.getLevel(), block.getMaxDepth(), Block.colorIndex(block.getColor()), null, 0);
+        }
+        
+        PersistentBlock[] newChildren = new PersistentBlock[4];
+        
+        for(int i = 0; i < 4; i++)
+        {
+            newChildren[i] = of(blockChildren.get(i));
+        }
+        
+        return new PersistentBlock(block.getLevel(), block.getMaxDepth(), -1, newChildren, 0);
+    }
+    
+    // Method that builds a random board from seed, the same one
+    // new Game(seed) would build.
+    public static PersistentBlock createRandomBoard(long seed)
+    {
+        return createRandomBoard(seed, Block.DEFAULT_MAX_DEPTH);
+    }
+    
+    // Method that builds the board new Game(seed, maxDepth, size) would
+    // build, whatever the size.
+    public static PersistentBlock createRandomBoard(long seed, int maxDepth)
+    {
+        return randomChildren(0, maxDepth, new SplittableRandom(new SplittableRandom(seed).nextLong()));
+    }
+    
+    // Method that builds a mutable Block tree with the same shape and colors,
+    // drawn at the default size.
+    public Block toBlock()
+    {
+        Block root = new Block(maxDepth, Block.DEFAULT_SIZE);
+        root.setColor(getColor());
+        copyChildren(this, root);
+        return root;
+    }
+    
+    private static void copyChildren(PersistentBlock source, Block block)
+    {
+        if (!source.isLeaf())
+        {
+            List<Block> blockChildren = new ArrayList<>(4);
+            
+            for(int i = 0; i < 4; i++)
+            {
+                PersistentBlock child = source.getChild(i);
+                Block copy = new Block(child.getColor(), child.level, block.getSize() / 2, block);
+                copyChildren(child, copy);
+                blockChildren.add(copy);
+            }
+            
+            block.setChildren(blockChildren);
+        }
+    }
+    
+    // Method that returns the board after move, with smashes drawing their
+    // children from smashSeed.
+    public PersistentBlock apply(Move move, long smashSeed)
+    {
+        int[] path = move.getPath();
+        
+        switch(move.getType())
+        {
+            case SWAP_HORIZONTAL:
+                return swap(path, true);
+            case SWAP_VERTICAL:
+                return swap(path, false);
+            case ROTATE_CLOCKWISE:
+                return rotate(path, true);
+            case ROTATE_COUNTERCLOCKWISE:
+                return rotate(path, false);
+            default:
+                return smash(path, smashSeed);
+        }
+    }
+    
+    // Method that returns the board with the block at path swapped.
+    public PersistentBlock swap(int[] path, boolean isHorizontal)
+    {
+        int[] permutation = isHorizontal ? SWAP_HORIZONTAL : SWAP_VERTICAL;
+        return replace(path, 0, block -> block.permuted(permutation));
+    }
+    
+    // Method that returns the board with the block at path rotated.
+    public PersistentBlock rotate(int[] path, boolean clockwise)
+    {
+        return replace(path, 0, block -> block.turned(clockwise ? 1 : 3));
+    }
+    
+    // Method that returns the board with the block at path given new random
+    // children from seed, the same ones Block.smash(seed) would give it.
+    public PersistentBlock smash(int[] path, long seed)
+    {
+        return replace(path, 0, block ->
+        {
+            //Only smash if not at level 0 or the max depth
+            if (block.level == 0 || block.level >= block.maxDepth)
+            {
+                return block;
+            }
+            
+            return randomChildren(block.level, block.maxDepth, new SplittableRandom(seed));
+        });
+    }
+    
+    // Method that returns the block at path, or null if the board doesn't
+    // have it.
+    public PersistentBlock find(int[] path)
+    {
+        PersistentBlock block = this;
+        
+        for(int index : path)
+        {
+            if (block.isLeaf())
+            {
+                return null;
+            }
+            
+            block = block.getChild(index);
+        }
+        
+        return block;
+    }
+    
+    // Method that returns child i (upper-left, upper-right, lower-left,
+    // lower-right) with any pending rotation applied.
+    public PersistentBlock getChild(int i)
+    {
+        if (orientation == 0)
+        {
+            return children[i];
+        }
+        
+        return children[ROTATIONS[orientation][i]].turned(orientation);
+    }
+    
+    public boolean isLeaf()
+    {
+        return children == null;
+    }
+    
+    public int getLevel()
+    {
+        return level;
+    }
+    
+    public int getMaxDepth()
+    {
+        return maxDepth;
+    }
+    
+    public int getColorIndex()
+    {
+        return colorIndex;
+    }
+    
+    public Color getColor()
+    {
+        if (colorIndex >= 0)
+        {
+            return Block.COLORS[colorIndex];
+        }
+        
+        return level == 0 && isLeaf() ? Color.WHITE : null;
+    }
+    
+    // Method that returns the color index of every unit cell at maxDepth,
+    // row by row, like Block.flatten.
+    public byte[] flatten()
+    {
+        int side = 1 << (maxDepth - level);
+        byte[] cells = new byte[side * side];
+        fillCells(cells, side, 0, 0, side);
+        return cells;
+    }
+    
+    // Method that flattens into cells, which must hold exactly the cells
+    // flatten would return, so a caller can reuse one array.
+    public void flattenInto(byte[] cells)
+    {
+        int side = 1 << (maxDepth - level);
+        
+        if (cells.length != side * side)
+        {
+            throw new IllegalArgumentException("Expected " + side * side + " cells, got " + cells.length);
+        }
+        
+        fillCells(cells, side, 0, 0, side);
+    }
+
+    private void fillCells(byte[] cells, int side, int row, int column, int span)
+    {
+        if (isLeaf() || span == 1)
+        {
+            for(int r = row; r < row + span; r++)
+            {
+                Arrays.fill(cells, r * side + column, r * side + column + span, colorIndex);
+            }
+        }
+        else
+        {
+            int half = span / 2;
+            getChild(0).fillCells(cells, side, row, column, half);
+            getChild(1).fillCells(cells, side, row, column + half, half);
+            getChild(2).fillCells(cells, side, row + half, column, half);
+            getChild(3).fillCells(cells, side, row + half, column + half, half);
+        }
+    }
+    
+    // Method that rebuilds the blocks on path from the root down, replacing
+    // the block at the end of it with change applied to it.
+    private PersistentBlock replace(int[] path, int depth, UnaryOperator<PersistentBlock> change)
+    {
+        if (depth == path.length)
+        {
+            return change.apply(this);
+        }
+        
+        if (isLeaf())
+        {
+            return this;
+        }
+        
+        PersistentBlock[] newChildren = resolvedChildren();
+        PersistentBlock oldChild = newChildren[path[depth]];
+        PersistentBlock newChild = oldChild.replace(path, depth + 1, change);
+        
+        if (newChild == oldChild && orientation == 0)
+        {
+            return this;
+        }
+        
+        newChildren[path[depth]] = newChild;
+        return new PersistentBlock(level, maxDepth, -1, newChildren, 0);
+    }
+    
+    // Method that returns a fresh array of the children with the pending
+    // rotation applied.
+    private PersistentBlock[] resolvedChildren()
+    {
+        PersistentBlock[] resolved = new PersistentBlock[4];
+        
+        for(int i = 0; i < 4; i++)
+        {
+            resolved[i] = getChild(i);
+        }
+        
+        return resolved;
+    }
+    
+    private PersistentBlock turned(int turns)
+    {
+        if (isLeaf())
+        {
+            return this;
+        }
+        
+        return new PersistentBlock(level, maxDepth, -1, children, (orientation + turns) & 3);
+    }
+    
+    private PersistentBlock permuted(int[] permutation)
+    {
+        if (isLeaf())
+        {
+            return this;
+        }
+        
+        PersistentBlock[] resolved = resolvedChildren();
+        PersistentBlock[] newChildren = new PersistentBlock[4];
+        
+        for(int i = 0; i < 4; i++)
+        {
+            newChildren[i] = resolved[permutation[i]];
+        }
+        
+        return new PersistentBlock(level, maxDepth, -1, newChildren, 0);
+    }
+    
+    // Method that builds a subdivided block at level with random children,
+    // drawing from random in the same order as Game.createRandomChildren.
+    private static PersistentBlock randomChildren(int level, int maxDepth, SplittableRandom random)
+    {
+        int childrenLevel = level + 1;
+        PersistentBlock[] newChildren = new PersistentBlock[4];
+        
+        //Create four blocks with random color
+        for(int i = 0; i < 4; i++)
+        {
+            newChildren[i] = new PersistentBlock(childrenLevel, maxDepth, random.nextInt(Block.COLORS.length), null, 0);
+        }
+        
+        if (childrenLevel < maxDepth)
+        {
+            if (random.nextDouble() < Math.exp(-0.25 * childrenLevel))
+            {
+                SplittableRandom[] streams = new SplittableRandom[4];
+                
+                for(int i = 0; i < 4; i++)
+                {
+                    streams[i] = random.split();
+                }
+                
+                for(int i = 0; i < 4; i++)
+                {
+                    newChildren[i] = randomChildren(childrenLevel, maxDepth, streams[i]);
+                }
+            }
+        }
+        
+        return new PersistentBlock(level, maxDepth, -1, newChildren, 0);
+    }
+}
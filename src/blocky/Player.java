@@ -0,0 +1,33 @@
+package blocky;
+
+// A player in a game of Blocky, working towards its own goal.
+public abstract class Player
+{
+    private final String name;
+    private final Goal goal;
+    
+    public Player(String inName, Goal inGoal)
+    {
+        name = inName;
+        goal = inGoal;
+    }
+    
+    // Method that picks the player's next move on the game's board, or
+    // returns null if the player has no move to make.
+    public abstract Move chooseMove(Game game);
+    
+    public int getScore(Game game)
+    {
+        return goal.score(game);
+    }
+    
+    public String getName()
+    {
+        return name;
+    }
+    
+    public Goal getGoal()
+    {
+        return goal;
+    }
+}
@@ -0,0 +1,24 @@
+package blocky;
+import java.util.List;
+import java.util.SplittableRandom;
+
+// A player that picks uniformly among the legal moves.  Used to drive games
+// without a human, e.g. in HeadlessRunner.  Not thread-safe; give each game
+// its own RandomPlayer.
+public class RandomPlayer extends Player
+{
+    private final SplittableRandom random;
+    
+    public RandomPlayer(String name, Goal goal, long seed)
+    {
+        super(name, goal);
+        random = new SplittableRandom(seed);
+    }
+    
+    @Override
+    public Move chooseMove(Game game)
+    {
+        List<Move> moves = Move.legalMoves(game.getRoot());
+        return moves.isEmpty() ? null : moves.get(random.nextInt(moves.size()));
+    }
+}
@@ -0,0 +1,22 @@
+package blocky;
+import java.util.ArrayList;
+import java.util.List;
+
+// A player that plays a fixed list of moves in order and then stops.
+public class ScriptedPlayer extends Player
+{
+    private final List<Move> script;
+    private int nextMove;
+    
+    public ScriptedPlayer(String name, Goal goal, List<Move> inScript)
+    {
+        super(name, goal);
+        script = new ArrayList<>(inScript);
+    }
+    
+    @Override
+    public Move chooseMove(Game game)
+    {
+        return nextMove < script.size() ? script.get(nextMove++) : null;
+    }
+}
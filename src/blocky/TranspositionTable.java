@@ -0,0 +1,155 @@
+package blocky;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+// A fixed-size, thread-safe cache of scores for board states, keyed by
+// Block.getZobristHash.  Searches use it to skip boards they have already
+// scored.
+//
+// Entries live in buckets of two slots chosen by the low bits of the hash.
+// When a bucket is full the new entry replaces, in order of preference:
+//   1. the slot already holding the same hash,
+//   2. a slot written in an older generation (see newGeneration),
+//   3. the slot with the lower depth.
+// There are no locks.  Each slot stores (hash ^ data) next to data, so a
+// reader that sees half of a concurrent write gets a mismatching hash and
+// treats it as a miss.
+public class TranspositionTable
+{
+    // Returned by probe when there is no usable entry.
+    public final static int NOT_FOUND = Integer.MIN_VALUE;
+    
+    // data layout: score in bits 0-31, depth in 32-39, generation in 40-47,
+    // and bit 63 set so an empty slot (all zero) never looks occupied.
+    private final static long OCCUPIED = 1L << 63;
+    
+    // Two longs per slot: checked key, then data.
+    private final AtomicLongArray slots;
+    private final int bucketMask;
+    private volatile int generation;
+    
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    
+    // Method that creates a table holding at least the given number of
+    // entries, rounded up to a power of two.
+    public TranspositionTable(int capacity)
+    {
+        int entries = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+        int buckets = entries / 2;
+        bucketMask = buckets - 1;
+        slots = new AtomicLongArray(buckets * 2 * 2);
+    }
+    
+    // Method to call at the start of each search, so entries from earlier
+    // searches are evicted before current ones.
+    public void newGeneration()
+    {
+        generation = (generation + 1) & 0xFF;
+    }
+    
+    // Method that returns the stored score for hash if it was stored with at
+    // least minDepth, or NOT_FOUND.
+    public int probe(long hash, int minDepth)
+    {
+        int first = bucketOf(hash);
+        
+        for (int slot = first; slot < first + 2; slot++)
+        {
+            long data = slots.get(slot * 2 + 1);
+            
+            if (data != 0 && (slots.get(slot * 2) ^ data) == hash && depthOf(data) >= minDepth)
+            {
+                hits.increment();
+                return (int) data;
+            }
+        }
+        
+        misses.increment();
+        return NOT_FOUND;
+    }
+    
+    public void store(long hash, int score, int depth)
+    {
+        long data = OCCUPIED | ((long) generation & 0xFF) << 40 | ((long) depth & 0xFF) << 32
+                | (score & 0xFFFFFFFFL);
+        int first = bucketOf(hash);
+        int victim = -1;
+        
+        for (int slot = first; slot < first + 2 && victim < 0; slot++)
+        {
+            long old = slots.get(slot * 2 + 1);
+            
+            if (old == 0 || (slots.get(slot * 2) ^ old) == hash)
+            {
+                victim = slot;
+            }
+        }
+        
+        if (victim < 0)
+        {
+            long firstData = slots.get(first * 2 + 1);
+            long secondData = slots.get(first * 2 + 3);
+            boolean firstStale = generationOf(firstData) != generation;
+            boolean secondStale = generationOf(secondData) != generation;
+            
+            if (firstStale != secondStale)
+            {
+                victim = firstStale ? first : first + 1;
+            }
+            else
+            {
+                victim = depthOf(firstData) <= depthOf(secondData) ? first : first + 1;
+            }
+            
+            evictions.increment();
+        }
+        
+        slots.set(victim * 2 + 1, data);
+        slots.set(victim * 2, hash ^ data);
+    }
+    
+    public void clear()
+    {
+        for (int i = 0; i < slots.length(); i++)
+        {
+            slots.set(i, 0);
+        }
+    }
+    
+    private int bucketOf(long hash)
+    {
+        return (int) (hash & bucketMask) * 2;
+    }
+    
+    private static int depthOf(long data)
+    {
+        return (int) (data >>> 32) & 0xFF;
+    }
+    
+    private static int generationOf(long data)
+    {
+        return (int) (data >>> 40) & 0xFF;
+    }
+    
+    public int getCapacity()
+    {
+        return slots.length() / 2;
+    }
+    
+    public long getHits()
+    {
+        return hits.sum();
+    }
+    
+    public long getMisses()
+    {
+        return misses.sum();
+    }
+    
+    public long getEvictions()
+    {
+        return evictions.sum();
+    }
+}
@@ -0,0 +1,213 @@
+package blocky;
+import java.awt.Rectangle;
+
+// The part of the board GameRenderer shows.  The board is drawn 2^zoom
+// times its own size and the view is a window of width by height pixels
+// onto it, which can be panned anywhere the board still fills it.
+//
+// Positions here are view pixels, with (0, 0) the view's upper-left corner.
+// Blocks are placed by halving the zoomed board size level by level, the
+// way BoardPainter lays a board out, so they line up with what it draws.
+// Only the render thread touches a viewport.
+public class Viewport
+{
+    //boardSize:
+    //    The board's width and height in pixels at zoom 0.
+    private final int boardSize;
+    private final int width;
+    private final int height;
+    
+    //maxZoom:
+    //    How far the view can zoom in: far enough that a block at the
+    //    board's deepest level fills it.
+    private final int maxZoom;
+    
+    //zoom:
+    //    The board is drawn boardSize << zoom pixels across.
+    private int zoom;
+    
+    //x, y:
+    //    The pixel of the zoomed board at the view's upper-left corner.
+    private int x;
+    private int y;
+    
+    public Viewport(int inBoardSize, int inMaxDepth, int inWidth, int inHeight)
+    {
+        boardSize = inBoardSize;
+        maxZoom = inMaxDepth;
+        width = inWidth;
+        height = inHeight;
+    }
+    
+    // Method that zooms in by steps (out when negative), each doubling or
+    // halving the board, keeping the board pixel under view pixel
+    // (centerX, centerY) where it is.  Returns true if the view changed.
+    public boolean zoom(int steps, int centerX, int centerY)
+    {
+        int newZoom = Math.max(0, Math.min(zoom + steps, maxZoom));
+        
+        if (newZoom == zoom)
+        {
+            return false;
+        }
+        
+        x = (int) (((long) (x + centerX) << newZoom >> zoom) - centerX);
+        y = (int) (((long) (y + centerY) << newZoom >> zoom) - centerY);
+        zoom = newZoom;
+        clamp();
+        return true;
+    }
+    
+    // Method that moves the board dx and dy view pixels right and down.
+    // Returns true if the view changed.
+    public boolean pan(int dx, int dy)
+    {
+        int oldX = x;
+        int oldY = y;
+        x -= dx;
+        y -= dy;
+        clamp();
+        return x != oldX || y != oldY;
+    }
+    
+    // Method that goes back to the whole board at its own size.
+    public void reset()
+    {
+        zoom = 0;
+        x = 0;
+        y = 0;
+    }
+    
+    // Method that keeps the view on the board.
+    private void clamp()
+    {
+        int scaledSize = getScaledSize();
+        x = Math.max(0, Math.min(x, scaledSize - width));
+        y = Math.max(0, Math.min(y, scaledSize - height));
+    }
+    
+    // Method that returns where block is drawn in the view, border
+    // excluded.  The block may be partly or wholly outside it.
+    public Rectangle boundsOf(Block block)
+    {
+        // Settle pending rotations above block so its quadrants are current.
+        block.resolveOrientation();
+        int[] quadrants = new int[block.getLevel()];
+        
+        for (Block ancestor = block; ancestor.getParent() != null; ancestor = ancestor.getParent())
+        {
+            quadrants[ancestor.getLevel() - 1] = ancestor.getQuadrant();
+        }
+        
+        int size = getScaledSize();
+        int left = -x;
+        int top = -y;
+        
+        for (int quadrant : quadrants)
+        {
+            size /= 2;
+            
+            if ((quadrant & 1) != 0)
+            {
+                left += size;
+            }
+            
+            if ((quadrant & 2) != 0)
+            {
+                top += size;
+            }
+        }
+        
+        return new Rectangle(left, top, size, size);
+    }
+    
+    // Method that returns the block drawn at view pixel (viewX, viewY): a
+    // leaf, or a block whose children are too small to draw.  Returns null
+    // if the pixel is off the board.
+    public Block blockAt(Block root, int viewX, int viewY)
+    {
+        int column = viewX + x;
+        int row = viewY + y;
+        int columns = getScaledSize();
+        int rows = columns;
+        
+        if (column < 0 || row < 0 || column >= columns || row >= rows)
+        {
+            return null;
+        }
+        
+        root.resolveOrientation();
+        Block block = root;
+        int drawnDepth = getDeepestDrawnLevel();
+        
+        // The odd pixel left over when a size doesn't halve evenly goes to
+        // the right or lower half, as in LeafIndex, so both agree at zoom 0.
+        while (!block.getResolvedChildren().isEmpty() && block.getLevel() < drawnDepth)
+        {
+            int quadrant = 0;
+            
+            if (column >= columns / 2)
+            {
+                quadrant |= 1;
+                column -= columns / 2;
+                columns -= columns / 2;
+            }
+            else
+            {
+                columns /= 2;
+            }
+            
+            if (row >= rows / 2)
+            {
+                quadrant |= 2;
+                row -= rows / 2;
+                rows -= rows / 2;
+            }
+            else
+            {
+                rows /= 2;
+            }
+            
+            block = block.getResolvedChildren().get(quadrant);
+        }
+        
+        return block;
+    }
+    
+    // Method that returns the deepest level whose blocks are drawn at the
+    // current zoom.
+    public int getDeepestDrawnLevel()
+    {
+        return BoardPainter.deepestDrawnLevel(getScaledSize());
+    }
+    
+    public int getScaledSize()
+    {
+        return boardSize << zoom;
+    }
+    
+    public int getZoom()
+    {
+        return zoom;
+    }
+    
+    public int getX()
+    {
+        return x;
+    }
+    
+    public int getY()
+    {
+        return y;
+    }
+    
+    public int getWidth()
+    {
+        return width;
+    }
+    
+    public int getHeight()
+    {
+        return height;
+    }
+}
@@ -0,0 +1,59 @@
+package blocky;
+import java.util.SplittableRandom;
+
+// The random keys behind Block.getZobristHash.  They come from a fixed seed,
+// so a board hashes to the same value in every run and hashes can be saved
+// alongside replays.
+final class ZobristKeys
+{
+    // Keys for every level a block can be at, 0 to Block.DEPTH_LIMIT.  Each
+    // level's keys are drawn before the next level's, so a deeper limit
+    // would leave the keys, and hashes, of the existing levels as they are.
+    final static int LEVELS = Block.DEPTH_LIMIT + 1;
+    
+    //LEAF_KEYS:
+    //    One key per level and color.  Index 0 is for a leaf without a
+    //    palette color (the plain white root); color i uses index i + 1.
+    private final static long[][] LEAF_KEYS = new long[LEVELS][Block.COLORS.length + 1];
+    
+    //QUADRANT_KEYS:
+    //    One key per level and quadrant, mixed into a child's hash so the same
+    //    subtree hashes differently in each position.
+    private final static long[][] QUADRANT_KEYS = new long[LEVELS][4];
+    
+    static
+    {
+        SplittableRandom random = new SplittableRandom(0x426C6F636B79L);
+        
+        for (int level = 0; level < LEVELS; level++)
+        {
+            for (int color = 0; color < LEAF_KEYS[level].length; color++)
+            {
+                LEAF_KEYS[level][color] = random.nextLong();
+            }
+            
+            for (int quadrant = 0; quadrant < 4; quadrant++)
+            {
+                QUADRANT_KEYS[level][quadrant] = random.nextLong();
+            }
+        }
+    }
+    
+    private ZobristKeys()
+    {
+    }
+    
+    static long leafKey(int level, int colorIndex)
+    {
+        return LEAF_KEYS[level][colorIndex + 1];
+    }
+    
+    // Method that mixes the hash of the child in the given quadrant of a
+    // block at the given level.  The multiply and rotate keep the four
+    // quadrants from cancelling out when they are xor-ed together.
+    static long quadrantKey(int level, int quadrant, long childHash)
+    {
+        long mixed = (childHash ^ QUADRANT_KEYS[level][quadrant]) * 0x9E3779B97F4A7C15L;
+        return Long.rotateLeft(mixed, 16 * quadrant + 7);
+    }
+}